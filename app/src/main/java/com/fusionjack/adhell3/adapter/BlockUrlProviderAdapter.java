@@ -24,7 +24,6 @@ import com.fusionjack.adhell3.utils.BlockUrlUtils;
 import java.lang.ref.WeakReference;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
 
 public class BlockUrlProviderAdapter extends ArrayAdapter<BlockUrlProvider> {
@@ -92,6 +91,8 @@ public class BlockUrlProviderAdapter extends ArrayAdapter<BlockUrlProvider> {
         protected Void doInBackground(Void... voids) {
             AppDatabase appDatabase = AppDatabase.getAppDatabase(App.get().getApplicationContext());
             appDatabase.blockUrlProviderDao().delete(provider);
+            appDatabase.blockUrlDao().deleteOrphanDomains();
+            BlockUrlUtils.deleteRawCache(provider);
             return null;
         }
 
@@ -120,7 +121,7 @@ public class BlockUrlProviderAdapter extends ArrayAdapter<BlockUrlProvider> {
             provider.selected = isChecked;
             AppDatabase appDatabase = AdhellFactory.getInstance().getAppDatabase();
             appDatabase.blockUrlProviderDao().updateBlockUrlProviders(provider);
-            int totalUrls = new HashSet<>(BlockUrlUtils.getAllBlockedUrls(appDatabase)).size();
+            int totalUrls = appDatabase.blockUrlDao().getUniqueUrlCount();
             if (totalUrls > AdhellAppIntegrity.BLOCK_URL_LIMIT) {
                 provider.selected = false;
                 appDatabase.blockUrlProviderDao().updateBlockUrlProviders(provider);
@@ -0,0 +1,131 @@
+package com.fusionjack.adhell3.adapter;
+
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.AbsListView;
+
+import com.fusionjack.adhell3.db.dao.ReportBlockedUrlDao;
+import com.fusionjack.adhell3.db.entity.ReportBlockedUrl;
+
+import java.util.List;
+
+/**
+ * Loads the blocked domains page by page into the adapter while the list is scrolled.
+ * Every page continues after the (blockDate, _id) of the last loaded row, so a page is read with one
+ * index lookup no matter how many rows have been loaded before. The list can be filtered by a package or a domain.
+ */
+public class ReportBlockedUrlPageLoader implements AbsListView.OnScrollListener {
+    private static final int PAGE_SIZE = 100;
+    private static final int PREFETCH_DISTANCE = 20;
+
+    private final ReportBlockedUrlAdapter adapter;
+    private final ReportBlockedUrlDao reportBlockedUrlDao;
+    private final long startDate;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private String packageName;
+    private String url;
+    private long lastBlockDate;
+    private long lastId;
+    private boolean loading;
+    private boolean complete;
+    private int generation;
+
+    public ReportBlockedUrlPageLoader(ReportBlockedUrlAdapter adapter, ReportBlockedUrlDao reportBlockedUrlDao, long startDate) {
+        this.adapter = adapter;
+        this.reportBlockedUrlDao = reportBlockedUrlDao;
+        this.startDate = startDate;
+        reset();
+    }
+
+    public String getPackageFilter() {
+        return packageName;
+    }
+
+    public String getUrlFilter() {
+        return url;
+    }
+
+    /**
+     * Show only the domains blocked for the given package, or all domains if it is null
+     */
+    public void setPackageFilter(String packageName) {
+        this.packageName = packageName;
+        this.url = null;
+        reload();
+    }
+
+    /**
+     * Show only the given blocked domain, or all domains if it is null
+     */
+    public void setUrlFilter(String url) {
+        this.url = url;
+        this.packageName = null;
+        reload();
+    }
+
+    public void reload() {
+        reset();
+        adapter.clear();
+        loadNextPage();
+    }
+
+    public void loadNextPage() {
+        if (loading || complete) {
+            return;
+        }
+        loading = true;
+
+        final int pageGeneration = generation;
+        final String packageName = this.packageName;
+        final String url = this.url;
+        final long beforeDate = lastBlockDate;
+        final long beforeId = lastId;
+        AsyncTask.execute(() -> {
+            List<ReportBlockedUrl> page;
+            if (packageName != null) {
+                page = reportBlockedUrlDao.getPageByPackage(packageName, startDate, beforeDate, beforeId, PAGE_SIZE);
+            } else if (url != null) {
+                page = reportBlockedUrlDao.getPageByUrl(url, startDate, beforeDate, beforeId, PAGE_SIZE);
+            } else {
+                page = reportBlockedUrlDao.getPage(startDate, beforeDate, beforeId, PAGE_SIZE);
+            }
+            handler.post(() -> onPageLoaded(pageGeneration, page));
+        });
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (firstVisibleItem + visibleItemCount >= totalItemCount - PREFETCH_DISTANCE) {
+            loadNextPage();
+        }
+    }
+
+    private void onPageLoaded(int pageGeneration, List<ReportBlockedUrl> page) {
+        // The filter has been changed in the meantime
+        if (pageGeneration != generation) {
+            return;
+        }
+        loading = false;
+        complete = page.size() < PAGE_SIZE;
+        if (!page.isEmpty()) {
+            ReportBlockedUrl last = page.get(page.size() - 1);
+            lastBlockDate = last.blockDate;
+            lastId = last.id;
+            adapter.addAll(page);
+        }
+    }
+
+    private void reset() {
+        generation++;
+        lastBlockDate = Long.MAX_VALUE;
+        lastId = Long.MAX_VALUE;
+        loading = false;
+        complete = false;
+    }
+}
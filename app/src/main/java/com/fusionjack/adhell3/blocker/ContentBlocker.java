@@ -5,10 +5,15 @@ import android.os.Handler;
 public interface ContentBlocker {
     void enableDomainRules();
     void disableDomainRules();
+    void updateDomainRules();
+    void suspendDomainRules();
+    void resumeDomainRules();
     void enableFirewallRules();
     void disableFirewallRules();
     boolean isEnabled();
     boolean isDomainRuleEmpty();
+    boolean isDomainRuleInterrupted();
+    boolean isDomainRuleSuspended();
     boolean isFirewallRuleEmpty();
     void setHandler(Handler handler);
 }
@@ -89,6 +89,23 @@ public class ContentBlocker20 implements ContentBlocker {
         }
     }
 
+    @Override
+    public void updateDomainRules() {
+        // The iptables rules can only be replaced as a whole
+        if (isEnabled()) {
+            enableDomainRules();
+        }
+    }
+
+    @Override
+    public void suspendDomainRules() {
+        // Not supported, the iptables rules can only be cleared
+    }
+
+    @Override
+    public void resumeDomainRules() {
+    }
+
     @Override
     public void enableFirewallRules() {
     }
@@ -107,6 +124,16 @@ public class ContentBlocker20 implements ContentBlocker {
         return !isEnabled();
     }
 
+    @Override
+    public boolean isDomainRuleInterrupted() {
+        return false;
+    }
+
+    @Override
+    public boolean isDomainRuleSuspended() {
+        return false;
+    }
+
     @Override
     public boolean isFirewallRuleEmpty() {
         return true;
@@ -2,37 +2,39 @@ package com.fusionjack.adhell3.blocker;
 
 import android.os.Handler;
 
+import com.fusionjack.adhell3.App;
 import com.fusionjack.adhell3.db.AppDatabase;
 import com.fusionjack.adhell3.db.entity.AppInfo;
-import com.fusionjack.adhell3.db.entity.UserBlockUrl;
 import com.fusionjack.adhell3.db.entity.WhiteUrl;
+import com.fusionjack.adhell3.service.ReportCollectorJobService;
 import com.fusionjack.adhell3.utils.AdhellFactory;
-import com.fusionjack.adhell3.utils.BlockUrlPatternsMatch;
-import com.fusionjack.adhell3.utils.BlockUrlUtils;
+import com.fusionjack.adhell3.utils.DomainSnapshot;
 import com.fusionjack.adhell3.utils.LogUtils;
-import com.google.common.collect.Lists;
-import com.sec.enterprise.AppIdentity;
 import com.sec.enterprise.firewall.DomainFilterRule;
 import com.sec.enterprise.firewall.Firewall;
 import com.sec.enterprise.firewall.FirewallResponse;
-import com.sec.enterprise.firewall.FirewallRule;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.util.StringTokenizer;
 
 public class ContentBlocker56 implements ContentBlocker {
+    private static final String DOMAIN_RULES_FILE = "domain_rules_applied.bin";
     private static ContentBlocker56 mInstance = null;
 
-    private Firewall firewall;
     private AppDatabase appDatabase;
+    private DomainRuleSync domainRuleSync;
+    private RuleStateCache ruleStateCache;
     private Handler handler;
 
     private ContentBlocker56() {
         this.appDatabase = AdhellFactory.getInstance().getAppDatabase();
-        this.firewall = AdhellFactory.getInstance().getFirewall();
+        this.domainRuleSync = new DomainRuleSync(new File(App.get().getFilesDir(), DOMAIN_RULES_FILE),
+                new DomainChunkSizer(AdhellFactory.getInstance().getSharedPreferences()));
+        this.ruleStateCache = new RuleStateCache(AdhellFactory.getInstance().getSharedPreferences());
     }
 
     public static ContentBlocker56 getInstance() {
@@ -56,6 +58,7 @@ public class ContentBlocker56 implements ContentBlocker {
 
     @Override
     public void enableFirewallRules() {
+        FirewallGateway firewall = getFirewall();
         if (firewall == null) {
             return;
         }
@@ -64,9 +67,8 @@ public class ContentBlocker56 implements ContentBlocker {
         LogUtils.getInstance().writeInfo("Enabling firewall rules...", handler);
 
         try {
-            processCustomRules();
-            processMobileRestrictedApps();
-            processWifiRestrictedApps();
+            new FirewallRulePlanner(firewall, appDatabase, handler).apply();
+            ruleStateCache.setFirewallRules(firewall.getRules(Firewall.FIREWALL_DENY_RULE, null));
 
             LogUtils.getInstance().writeInfo("\nFirewall rules are enabled.", handler);
 
@@ -83,6 +85,7 @@ public class ContentBlocker56 implements ContentBlocker {
 
     @Override
     public void disableFirewallRules() {
+        FirewallGateway firewall = getFirewall();
         if (firewall == null) {
             return;
         }
@@ -94,6 +97,7 @@ public class ContentBlocker56 implements ContentBlocker {
         LogUtils.getInstance().writeInfo("\nClearing firewall rules...", handler);
         FirewallResponse[] response = firewall.clearRules(Firewall.FIREWALL_ALL_RULES);
         LogUtils.getInstance().writeInfo(response == null ? "No response" : response[0].getMessage(), handler);
+        ruleStateCache.setFirewallRules(null);
 
         LogUtils.getInstance().writeInfo("\nFirewall rules are disabled.", handler);
 
@@ -106,6 +110,7 @@ public class ContentBlocker56 implements ContentBlocker {
 
     @Override
     public void enableDomainRules() {
+        FirewallGateway firewall = getFirewall();
         if (firewall == null) {
             return;
         }
@@ -114,9 +119,13 @@ public class ContentBlocker56 implements ContentBlocker {
         LogUtils.getInstance().writeInfo("Enabling domain rules...", handler);
 
         try {
-            processWhitelistedApps();
-            processWhitelistedDomains();
-            processBlockedDomains();
+            if (domainRuleSync.isInterrupted()) {
+                LogUtils.getInstance().writeInfo("\nResuming the interrupted domain rules...", handler);
+            } else {
+                // Knox has no domain rules at this point, so everything is sent again
+                domainRuleSync.reset();
+            }
+            syncDomainRules();
 
             LogUtils.getInstance().writeInfo("\nDomain rules are enabled.", handler);
 
@@ -131,13 +140,14 @@ public class ContentBlocker56 implements ContentBlocker {
                 LogUtils.getInstance().writeInfo("Firewall report is enabled.", handler);
             }
         } catch (Exception e) {
-            disableDomainRules();
-            e.printStackTrace();
+            // The committed chunks are kept, enabling the domain rules again resumes from there
+            LogUtils.getInstance().writeError("\nDomain rules are not completely enabled, enable them again to resume", e, handler);
         }
     }
 
     @Override
     public void disableDomainRules() {
+        FirewallGateway firewall = getFirewall();
         if (firewall == null) {
             return;
         }
@@ -149,6 +159,9 @@ public class ContentBlocker56 implements ContentBlocker {
         LogUtils.getInstance().writeInfo("\nClearing domain rules...", handler);
         FirewallResponse[] response = firewall.removeDomainFilterRules(DomainFilterRule.CLEAR_ALL);
         LogUtils.getInstance().writeInfo(response == null ? "No response" : response[0].getMessage(), handler);
+        domainRuleSync.reset();
+        ruleStateCache.setDomainRules(false, 0, 0);
+        ReportCollectorJobService.cancel(App.get());
 
         LogUtils.getInstance().writeInfo("\nDomain rules are disabled.", handler);
 
@@ -162,127 +175,104 @@ public class ContentBlocker56 implements ContentBlocker {
         }
     }
 
-    private void processCustomRules() throws Exception {
-        LogUtils.getInstance().writeInfo("\nProcessing custom rules...", handler);
-
-        FirewallRule[] enabledRules = firewall.getRules(Firewall.FIREWALL_DENY_RULE, FirewallRule.Status.ENABLED);
-        int count = 0;
-        List<UserBlockUrl> userBlockUrls = appDatabase.userBlockUrlDao().getAll2();
-        for (UserBlockUrl userBlockUrl : userBlockUrls) {
-            if (userBlockUrl.url.indexOf('|') != -1) {
-                StringTokenizer tokens = new StringTokenizer(userBlockUrl.url, "|");
-                if (tokens.countTokens() == 3) {
-                    String packageName = tokens.nextToken().trim();
-                    String ip = tokens.nextToken().trim();
-                    String port = tokens.nextToken().trim();
-
-                    boolean add = true;
-                    for (FirewallRule enabledRule : enabledRules) {
-                        String packageName1 = enabledRule.getApplication().getPackageName();
-                        String ip1 = enabledRule.getIpAddress();
-                        String port1 = enabledRule.getPortNumber();
-                        if (packageName1.equalsIgnoreCase(packageName) && ip1.equalsIgnoreCase(ip) && port1.equalsIgnoreCase(port)) {
-                            add = false;
-                        }
-                    }
+    @Override
+    public void updateDomainRules() {
+        if (getFirewall() == null || !(domainRuleSync.hasAppliedRules() || domainRuleSync.isInterrupted())) {
+            return;
+        }
 
-                    LogUtils.getInstance().writeInfo("\nProcessing firewall rule for '" + packageName + "|" + ip + "|" + port + "'...", handler);
-                    if (add) {
-                        FirewallRule[] firewallRules = new FirewallRule[2];
-                        firewallRules[0] = new FirewallRule(FirewallRule.RuleType.DENY, Firewall.AddressType.IPV4);
-                        firewallRules[0].setIpAddress(ip);
-                        firewallRules[0].setPortNumber(port);
-                        firewallRules[0].setApplication(new AppIdentity(packageName, null));
-
-                        firewallRules[1] = new FirewallRule(FirewallRule.RuleType.DENY, Firewall.AddressType.IPV6);
-                        firewallRules[1].setIpAddress(ip);
-                        firewallRules[1].setPortNumber(port);
-                        firewallRules[1].setApplication(new AppIdentity(packageName, null));
-
-                        AdhellFactory.getInstance().addFirewallRules(firewallRules, handler);
-                    } else {
-                        LogUtils.getInstance().writeInfo("The firewall rule is already been enabled", handler);
-                    }
+        LogUtils.getInstance().reset();
+        LogUtils.getInstance().writeInfo("Updating domain rules...", handler);
 
-                    ++count;
-                }
-            }
+        try {
+            syncDomainRules();
+            LogUtils.getInstance().writeInfo("\nDomain rules are updated.", handler);
+        } catch (Exception e) {
+            // The rules applied so far are recorded, the next update continues from there
+            LogUtils.getInstance().writeError("Failed to update domain rules", e, handler);
         }
-
-        LogUtils.getInstance().writeInfo("Custom rule size: " + count, handler);
     }
 
-    private void processMobileRestrictedApps() throws Exception {
-        LogUtils.getInstance().writeInfo("\nProcessing mobile restricted apps...", handler);
-
-        List<AppInfo> restrictedApps = appDatabase.applicationInfoDao().getMobileRestrictedApps();
-        int size = restrictedApps.size();
-        LogUtils.getInstance().writeInfo("Restricted apps size: " + size, handler);
-        if (size == 0) {
+    /**
+     * Stop blocking without removing the domain rules, every app identity additionally allows all domains
+     */
+    @Override
+    public void suspendDomainRules() {
+        if (getFirewall() == null || isDomainRuleSuspended() || !domainRuleSync.hasAppliedRules()) {
             return;
         }
 
-        FirewallRule[] enabledRules = firewall.getRules(Firewall.FIREWALL_DENY_RULE, FirewallRule.Status.ENABLED);
-        for (AppInfo app : restrictedApps) {
-            String packageName = app.packageName;
-
-            boolean add = true;
-            for (FirewallRule enabledRule : enabledRules) {
-                String packageName1 = enabledRule.getPackageName();
-                Firewall.NetworkInterface networkInterface = enabledRule.getNetworkInterface();
-                if (packageName1.equalsIgnoreCase(packageName) && networkInterface == Firewall.NetworkInterface.MOBILE_DATA_ONLY) {
-                    add = false;
-                    break;
-                }
-            }
-
-            LogUtils.getInstance().writeInfo("\nProcessing firewall rule for '" + packageName + "'...", handler);
-            if (add) {
-                FirewallRule[] mobileRules = AdhellFactory.getInstance().createFirewallRules(packageName,
-                        Firewall.NetworkInterface.MOBILE_DATA_ONLY);
-                AdhellFactory.getInstance().addFirewallRules(mobileRules, handler);
-            } else {
-                LogUtils.getInstance().writeInfo("The firewall rule is already been enabled", handler);
-            }
+        try {
+            LogUtils.getInstance().writeInfo("Suspending domain rules...", handler);
+            domainRuleSync.suspend(handler);
+        } catch (Exception e) {
+            LogUtils.getInstance().writeError("Failed to suspend domain rules", e, handler);
         }
     }
 
-    private void processWifiRestrictedApps() throws Exception {
-        LogUtils.getInstance().writeInfo("\nProcessing wifi restricted apps...", handler);
-
-        List<AppInfo> restrictedApps = appDatabase.applicationInfoDao().getWifiRestrictedApps();
-        int size = restrictedApps.size();
-        LogUtils.getInstance().writeInfo("Restricted apps size: " + size, handler);
-        if (size == 0) {
+    @Override
+    public void resumeDomainRules() {
+        if (getFirewall() == null || !isDomainRuleSuspended()) {
             return;
         }
 
-        FirewallRule[] enabledRules = firewall.getRules(Firewall.FIREWALL_DENY_RULE, FirewallRule.Status.ENABLED);
-        for (AppInfo app : restrictedApps) {
-            String packageName = app.packageName;
-
-            boolean add = true;
-            for (FirewallRule enabledRule : enabledRules) {
-                String packageName1 = enabledRule.getPackageName();
-                Firewall.NetworkInterface networkInterface = enabledRule.getNetworkInterface();
-                if (packageName1.equalsIgnoreCase(packageName) && networkInterface == Firewall.NetworkInterface.WIFI_DATA_ONLY) {
-                    add = false;
-                    break;
-                }
-            }
+        try {
+            LogUtils.getInstance().writeInfo("Resuming domain rules...", handler);
+            domainRuleSync.resume(handler);
+        } catch (Exception e) {
+            LogUtils.getInstance().writeError("Failed to resume domain rules", e, handler);
+        }
+    }
 
-            LogUtils.getInstance().writeInfo("\nProcessing firewall rule for '" + packageName + "'...", handler);
-            if (add) {
-                FirewallRule[] wifiRules = AdhellFactory.getInstance().createFirewallRules(packageName,
-                        Firewall.NetworkInterface.WIFI_DATA_ONLY);
-                AdhellFactory.getInstance().addFirewallRules(wifiRules, handler);
-            } else {
-                LogUtils.getInstance().writeInfo("The firewall rule is already been enabled", handler);
+    @Override
+    public boolean isDomainRuleSuspended() {
+        return domainRuleSync.isSuspended();
+    }
+
+    /**
+     * Apply the domain rules of the current database content, only the difference to the applied rules is sent
+     */
+    private void syncDomainRules() throws Exception {
+        Map<String, DomainRuleSync.RuleSet> rules = createDomainRules();
+
+        int whitelistedAppCount = 0;
+        for (Map.Entry<String, DomainRuleSync.RuleSet> entry : rules.entrySet()) {
+            if (!entry.getKey().equals("*") && entry.getValue().getAllowList().contains("*")) {
+                whitelistedAppCount++;
             }
         }
+        DomainRuleSync.RuleSet globalRules = rules.get("*");
+
+        try {
+            domainRuleSync.sync(rules, handler);
+        } finally {
+            // Knox holds rules as soon as the first chunk is committed, even if a later one fails
+            ruleStateCache.setDomainRules(domainRuleSync.hasAppliedRules(), globalRules.getDenyList().size(), whitelistedAppCount);
+        }
+    }
+
+    /**
+     * The gateway is looked up on every call, so that a gateway set in AdhellFactory is used right away
+     */
+    private FirewallGateway getFirewall() {
+        return AdhellFactory.getInstance().getFirewallGateway();
     }
 
-    private void processWhitelistedApps() throws Exception {
+    public RuleStateCache getRuleState() {
+        return ruleStateCache;
+    }
+
+    private Map<String, DomainRuleSync.RuleSet> createDomainRules() {
+        // The snapshot is only referenced by the rules, it is released with them after the sync
+        DomainSnapshot snapshot = DomainSnapshot.get(appDatabase);
+        Map<String, DomainRuleSync.RuleSet> rules = new LinkedHashMap<>();
+        processWhitelistedApps(rules);
+        processWhitelistedDomains(rules, snapshot);
+        processBlockedDomains(rules, snapshot);
+        return rules;
+    }
+
+    private void processWhitelistedApps(Map<String, DomainRuleSync.RuleSet> rules) {
         LogUtils.getInstance().writeInfo("\nProcessing white-listed apps...", handler);
 
         // Create domain filter rule for white listed apps
@@ -292,17 +282,15 @@ public class ContentBlocker56 implements ContentBlocker {
             return;
         }
 
-        List<DomainFilterRule> rules = new ArrayList<>();
         List<String> superAllow = new ArrayList<>();
         superAllow.add("*");
         for (AppInfo app : whitelistedApps) {
             LogUtils.getInstance().writeInfo("Whitelisted app: " + app.packageName, handler);
-            rules.add(new DomainFilterRule(new AppIdentity(app.packageName, null), new ArrayList<>(), superAllow));
+            rules.put(app.packageName, new DomainRuleSync.RuleSet(new ArrayList<>(), superAllow));
         }
-        AdhellFactory.getInstance().addDomainFilterRules(rules, handler);
     }
 
-    private void processWhitelistedDomains() throws Exception {
+    private void processWhitelistedDomains(Map<String, DomainRuleSync.RuleSet> rules, DomainSnapshot snapshot) {
         LogUtils.getInstance().writeInfo("\nProcessing white-listed domains...", handler);
 
         // Process user-defined white list
@@ -314,7 +302,8 @@ public class ContentBlocker56 implements ContentBlocker {
             return;
         }
 
-        Set<String> denyList = BlockUrlUtils.getUniqueBlockedUrls(appDatabase, handler, false);
+        // Group the URLs by package, so that the deny list is sent once per package and not once per URL
+        Map<String, List<String>> packageAllowLists = new LinkedHashMap<>();
         for (WhiteUrl whiteUrl : whiteUrls) {
             if (whiteUrl.url.indexOf('|') != -1) {
                 StringTokenizer tokens = new StringTokenizer(whiteUrl.url, "|");
@@ -323,79 +312,61 @@ public class ContentBlocker56 implements ContentBlocker {
                     final String url = tokens.nextToken();
                     LogUtils.getInstance().writeInfo("PackageName: " + packageName + ", WhiteUrl: " + url, handler);
 
-                    final AppIdentity appIdentity = new AppIdentity(packageName, null);
-                    List<String> allowList = new ArrayList<>();
+                    List<String> allowList = packageAllowLists.get(packageName);
+                    if (allowList == null) {
+                        allowList = new ArrayList<>();
+                        packageAllowLists.put(packageName, allowList);
+                    }
                     allowList.add(url);
-                    processDomains(appIdentity, new ArrayList<>(denyList), allowList);
                 }
             }
         }
 
-        // Whitelist URL for all apps
-        Set<String> allowList = new HashSet<>();
-        for (WhiteUrl whiteUrl : whiteUrls) {
-            if (whiteUrl.url.indexOf('|') == -1) {
-                final String url = BlockUrlPatternsMatch.getValidatedUrl(whiteUrl.url);
-                allowList.add(url);
-                LogUtils.getInstance().writeInfo("WhiteUrl: " + url, handler);
+        // The deny list of the snapshot is immutable and shared by the rules of all packages
+        List<String> denyList = snapshot.getDenyList();
+        for (Map.Entry<String, List<String>> entry : packageAllowLists.entrySet()) {
+            // A whitelisted app is already allowed to access every domain
+            if (rules.containsKey(entry.getKey())) {
+                continue;
             }
-        }
-        if (allowList.size() > 0) {
-            final AppIdentity appIdentity = new AppIdentity("*", null);
-            List<DomainFilterRule> rules = new ArrayList<>();
-            rules.add(new DomainFilterRule(appIdentity, new ArrayList<>(), new ArrayList<>(allowList)));
-            AdhellFactory.getInstance().addDomainFilterRules(rules, handler);
+            LogUtils.getInstance().writeInfo("Whitelisted URLs for " + entry.getKey() + ": " + entry.getValue().size(), handler);
+            rules.put(entry.getKey(), new DomainRuleSync.RuleSet(denyList, entry.getValue()));
         }
     }
 
-    private void processBlockedDomains() throws Exception {
+    private void processBlockedDomains(Map<String, DomainRuleSync.RuleSet> rules, DomainSnapshot snapshot) {
         LogUtils.getInstance().writeInfo("\nProcessing blocked domains...", handler);
 
-        Set<String> denyList = BlockUrlUtils.getUniqueBlockedUrls(appDatabase, handler, true);
-        final AppIdentity appIdentity = new AppIdentity("*", null);
-        processDomains(appIdentity, new ArrayList<>(denyList), new ArrayList<>());
-    }
-
-    private void processDomains(AppIdentity appIdentity, List<String> denyList, List<String> allowList) throws Exception {
-        int start = 0;
-        List<List<String>> chunks = Lists.partition(denyList, 5000);
-        for (List<String> chunk : chunks) {
-            LogUtils.getInstance().writeInfo("\nProcessing " + start + " to " + (start + chunk.size()) + " domains...", handler);
-            start += chunk.size();
+        List<String> denyList = snapshot.getDenyList();
+        LogUtils.getInstance().writeInfo("Domain snapshot: " + snapshot.getHash(), handler);
+        LogUtils.getInstance().writeInfo("Total unique domains to block: " + denyList.size(), handler);
 
-            List<DomainFilterRule> rules = new ArrayList<>();
-            rules.add(new DomainFilterRule(appIdentity, chunk, allowList));
-            AdhellFactory.getInstance().addDomainFilterRules(rules, handler);
+        // Whitelist URL for all apps
+        List<String> allowList = snapshot.getAllowList();
+        for (String url : allowList) {
+            LogUtils.getInstance().writeInfo("WhiteUrl: " + url, handler);
         }
+        rules.put("*", new DomainRuleSync.RuleSet(denyList, allowList));
     }
 
     @Override
     public boolean isEnabled() {
+        FirewallGateway firewall = getFirewall();
         return firewall != null && firewall.isFirewallEnabled();
     }
 
     @Override
     public boolean isDomainRuleEmpty() {
-        if (isEnabled()) {
-            List<String> packageNameList = new ArrayList<>();
-            packageNameList.add(Firewall.FIREWALL_ALL_PACKAGES);
-            List<DomainFilterRule> rules = firewall.getDomainFilterRules(packageNameList);
-            if (BlockUrlUtils.isDomainLimitAboveDefault() && rules == null) {
-                // The rules will be null when the total domains more than 15000
-                // Let's assume that the domain rules are enabled in this case
-                return false;
-            }
-            return rules.size() == 0;
-        }
-        return true;
+        return !isEnabled() || !ruleStateCache.isDomainRuleApplied();
+    }
+
+    @Override
+    public boolean isDomainRuleInterrupted() {
+        return getFirewall() != null && domainRuleSync.isInterrupted();
     }
 
     @Override
     public boolean isFirewallRuleEmpty() {
-        if (isEnabled()) {
-            FirewallRule[] rules = firewall.getRules(Firewall.FIREWALL_DENY_RULE, null);
-            return rules == null || rules.length == 0;
-        }
-        return true;
+        return !isEnabled() || !ruleStateCache.isFirewallRuleApplied();
     }
 }
\ No newline at end of file
@@ -40,6 +40,21 @@ public class ContentBlocker57 implements ContentBlocker {
         contentBlocker56.disableDomainRules();
     }
 
+    @Override
+    public void updateDomainRules() {
+        contentBlocker56.updateDomainRules();
+    }
+
+    @Override
+    public void suspendDomainRules() {
+        contentBlocker56.suspendDomainRules();
+    }
+
+    @Override
+    public void resumeDomainRules() {
+        contentBlocker56.resumeDomainRules();
+    }
+
     @Override
     public void enableFirewallRules() {
         contentBlocker56.enableFirewallRules();
@@ -60,6 +75,16 @@ public class ContentBlocker57 implements ContentBlocker {
         return contentBlocker56.isDomainRuleEmpty();
     }
 
+    @Override
+    public boolean isDomainRuleInterrupted() {
+        return contentBlocker56.isDomainRuleInterrupted();
+    }
+
+    @Override
+    public boolean isDomainRuleSuspended() {
+        return contentBlocker56.isDomainRuleSuspended();
+    }
+
     @Override
     public boolean isFirewallRuleEmpty() {
         return contentBlocker56.isFirewallRuleEmpty();
@@ -0,0 +1,89 @@
+package com.fusionjack.adhell3.blocker;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Number of domains sent to Knox in one call, tuned on the device from the measured push rate.
+ * The size grows while each step pushes the domains at least 5% faster, goes back to the best size
+ * as soon as a step is slower, and is halved when Knox fails. The tuned size is kept in the preferences,
+ * so the next sync starts from it and probes once more upwards.
+ */
+public class DomainChunkSizer {
+    private static final String TAG = DomainChunkSizer.class.getCanonicalName();
+    private static final String DOMAIN_CHUNK_SIZE = "adhell_domain_chunk_size";
+    static final int MIN_CHUNK_SIZE = 500;
+    static final int MAX_CHUNK_SIZE = 20000;
+    static final int DEFAULT_CHUNK_SIZE = 5000;
+    private static final double MIN_IMPROVEMENT = 1.05;
+
+    private final SharedPreferences sharedPreferences;
+    private int chunkSize;
+    private int bestChunkSize;
+    private double bestRate;
+    private boolean settled;
+
+    public DomainChunkSizer(SharedPreferences sharedPreferences) {
+        this.sharedPreferences = sharedPreferences;
+        this.chunkSize = clamp(sharedPreferences.getInt(DOMAIN_CHUNK_SIZE, DEFAULT_CHUNK_SIZE));
+        this.bestChunkSize = chunkSize;
+    }
+
+    public synchronized int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Start probing again from the current size, e.g. at the beginning of a sync
+     */
+    public synchronized void restart() {
+        bestChunkSize = chunkSize;
+        bestRate = 0;
+        settled = false;
+    }
+
+    /**
+     * @param size  number of domains which have been sent
+     * @param nanos duration of the call
+     */
+    public synchronized void onSuccess(int size, long nanos) {
+        // The last chunk of a list is usually smaller and says little about the rate
+        if (settled || size < chunkSize * 3 / 4) {
+            return;
+        }
+
+        double rate = size * 1e9 / Math.max(1, nanos);
+        if (rate >= bestRate * MIN_IMPROVEMENT) {
+            bestRate = rate;
+            bestChunkSize = chunkSize;
+            chunkSize = clamp(chunkSize * 3 / 2);
+            settled = chunkSize == bestChunkSize;
+        } else {
+            chunkSize = bestChunkSize;
+            settled = true;
+        }
+        Log.d(TAG, "Pushed " + (long) rate + " domains/s with " + size + " domains per call, next chunk size: " + chunkSize);
+    }
+
+    /**
+     * @return whether the size could be reduced, so that the failed chunk is worth sending again
+     */
+    public synchronized boolean onFailure() {
+        settled = true;
+        if (chunkSize == MIN_CHUNK_SIZE) {
+            return false;
+        }
+        chunkSize = clamp(chunkSize / 2);
+        bestChunkSize = chunkSize;
+        Log.d(TAG, "Knox call failed, next chunk size: " + chunkSize);
+        return true;
+    }
+
+    public synchronized void save() {
+        sharedPreferences.edit().putInt(DOMAIN_CHUNK_SIZE, chunkSize).apply();
+    }
+
+    private static int clamp(int size) {
+        return Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size));
+    }
+}
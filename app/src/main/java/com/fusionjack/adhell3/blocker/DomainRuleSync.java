@@ -0,0 +1,614 @@
+package com.fusionjack.adhell3.blocker;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.fusionjack.adhell3.utils.AdhellFactory;
+import com.fusionjack.adhell3.utils.LogUtils;
+import com.sec.enterprise.AppIdentity;
+import com.sec.enterprise.firewall.DomainFilterRule;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Applies domain rules to Knox as the difference to the rules which were last applied successfully.
+ * The applied rules are recorded per app identity in a file, together with a hash of each rule set,
+ * so that an unchanged app identity is skipped without comparing its domains. A deny list shared
+ * by several app identities is stored once and referenced by its hash.
+ * <p>
+ * Every chunk committed by Knox is appended to a journal before the next one is sent, the record
+ * itself is only written once a sync has completed. If a sync fails or the process dies, the journal
+ * is replayed onto the record, and the next sync only sends what is missing.
+ * <p>
+ * While the rules are suspended, every app identity additionally allows all domains. This is part of
+ * the applied rules, so a sync keeps it until the rules are resumed. The app identities which only
+ * allow all domains because of the suspension are kept in a file, so that resuming only has to remove
+ * that allowed domain from them.
+ */
+public class DomainRuleSync {
+    private static final String TAG = DomainRuleSync.class.getCanonicalName();
+    private static final int MAGIC = 0x41443352;
+    private static final int VERSION = 2;
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+
+    private final File stateFile;
+    private final File journalFile;
+    private final File pendingFile;
+    private final File suspendedFile;
+    private final DomainChunkSizer chunkSizer;
+    private Map<String, RuleSet> appliedRules;
+
+    public DomainRuleSync(File stateFile, DomainChunkSizer chunkSizer) {
+        this.stateFile = stateFile;
+        this.journalFile = new File(stateFile.getPath() + ".journal");
+        this.pendingFile = new File(stateFile.getPath() + ".pending");
+        this.suspendedFile = new File(stateFile.getPath() + ".suspended");
+        this.chunkSizer = chunkSizer;
+    }
+
+    /**
+     * Deny and allow list of one app identity
+     */
+    public static class RuleSet {
+        private final List<String> denyList;
+        private final List<String> allowList;
+        private String hash;
+        private String denyHash;
+
+        public RuleSet(List<String> denyList, List<String> allowList) {
+            this.denyList = denyList;
+            this.allowList = allowList;
+        }
+
+        public List<String> getDenyList() {
+            return denyList;
+        }
+
+        public List<String> getAllowList() {
+            return allowList;
+        }
+
+        boolean isEmpty() {
+            return denyList.isEmpty() && allowList.isEmpty();
+        }
+
+        String getHash() {
+            if (hash == null) {
+                MessageDigest digest = newDigest();
+                update(digest, denyList);
+                digest.update((byte) '\n');
+                update(digest, allowList);
+                hash = toHex(digest.digest());
+            }
+            return hash;
+        }
+
+        String getDenyHash() {
+            if (denyHash == null) {
+                MessageDigest digest = newDigest();
+                update(digest, denyList);
+                denyHash = toHex(digest.digest());
+            }
+            return denyHash;
+        }
+
+        private static void update(MessageDigest digest, List<String> list) {
+            Charset charset = Charset.forName("UTF-8");
+            for (String entry : sorted(list)) {
+                digest.update(entry.getBytes(charset));
+                digest.update((byte) '\n');
+            }
+        }
+
+        private static MessageDigest newDigest() {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static String toHex(byte[] bytes) {
+            StringBuilder builder = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        }
+
+        private static List<String> sorted(List<String> list) {
+            for (int i = 1; i < list.size(); i++) {
+                if (list.get(i - 1).compareTo(list.get(i)) > 0) {
+                    List<String> sortedList = new ArrayList<>(list);
+                    Collections.sort(sortedList);
+                    return sortedList;
+                }
+            }
+            return list;
+        }
+    }
+
+    /**
+     * @return whether any domain rule has been applied through this sync
+     */
+    public synchronized boolean hasAppliedRules() {
+        if (appliedRules == null) {
+            // An empty record is not written, the rules are not loaded only to find out
+            return stateFile.exists() || journalFile.exists();
+        }
+        return !appliedRules.isEmpty();
+    }
+
+    /**
+     * @return whether the last sync has not been completed, so that the next one resumes it
+     */
+    public synchronized boolean isInterrupted() {
+        return pendingFile.exists();
+    }
+
+    /**
+     * @return whether every app identity allows all domains until the rules are resumed
+     */
+    public synchronized boolean isSuspended() {
+        return suspendedFile.exists();
+    }
+
+    /**
+     * Forget the applied rules, e.g. after all domain rules have been cleared in Knox
+     */
+    public synchronized void reset() {
+        appliedRules = new LinkedHashMap<>();
+        for (File file : new File[]{stateFile, journalFile, pendingFile, suspendedFile}) {
+            if (file.exists() && !file.delete()) {
+                Log.w(TAG, "Unable to delete " + file);
+            }
+        }
+    }
+
+    /**
+     * Bring Knox to the given rules, the key of the map is the package name of the app identity.
+     * Only added and removed domains are sent, every chunk is journaled as soon as Knox has committed it.
+     */
+    public synchronized void sync(Map<String, RuleSet> targetRules, Handler handler) throws Exception {
+        sync(targetRules, isSuspended(), handler);
+    }
+
+    /**
+     * Allow all domains for every app identity of the applied rules, the rules are suspended once Knox committed it
+     */
+    public synchronized void suspend(Handler handler) throws Exception {
+        if (isSuspended()) {
+            // The applied rules already allow all domains, recording them again would lose the suspended app identities
+            return;
+        }
+        sync(new LinkedHashMap<>(getAppliedRules()), true, handler);
+    }
+
+    /**
+     * Stop allowing all domains where only the suspension allows them, the rules are resumed once Knox committed it.
+     * The applied rules are kept otherwise, so only one call per app identity is sent. Changes of the domains
+     * since the last sync are not applied, that is left to the next sync.
+     */
+    public synchronized void resume(Handler handler) throws Exception {
+        Map<String, RuleSet> targetRules = new LinkedHashMap<>(getAppliedRules());
+        for (String packageName : readSuspended()) {
+            RuleSet ruleSet = targetRules.get(packageName);
+            if (ruleSet != null) {
+                targetRules.put(packageName, withoutAllowAll(ruleSet));
+            }
+        }
+        sync(targetRules, false, handler);
+        if (suspendedFile.exists() && !suspendedFile.delete()) {
+            throw new IOException("Unable to delete " + suspendedFile);
+        }
+    }
+
+    private void sync(Map<String, RuleSet> targetRules, boolean suspended, Handler handler) throws Exception {
+        if (suspended) {
+            Map<String, RuleSet> suspendedRules = new LinkedHashMap<>();
+            List<String> suspendedPackages = new ArrayList<>();
+            for (Map.Entry<String, RuleSet> entry : targetRules.entrySet()) {
+                RuleSet ruleSet = allowAll(entry.getValue());
+                if (ruleSet != entry.getValue()) {
+                    suspendedPackages.add(entry.getKey());
+                }
+                suspendedRules.put(entry.getKey(), ruleSet);
+            }
+            targetRules = suspendedRules;
+            // Written before anything is sent, so that a resume after an interrupted sync finds every app identity
+            writeSuspended(suspendedPackages);
+        }
+
+        Map<String, RuleSet> applied = getAppliedRules();
+        if (!pendingFile.exists() && !pendingFile.createNewFile()) {
+            throw new IOException("Unable to create " + pendingFile);
+        }
+        chunkSizer.restart();
+        try {
+            // A journal left by an interrupted sync is folded into the record as well
+            boolean changed = syncRules(applied, targetRules, handler) || journalFile.exists();
+            if (changed) {
+                save();
+                if (journalFile.exists() && !journalFile.delete()) {
+                    Log.w(TAG, "Unable to delete " + journalFile);
+                }
+            }
+        } finally {
+            // The record is read again from the files on the next sync, they contain every chunk committed
+            // so far. The rules share the deny list of the domain snapshot, which is released with them.
+            appliedRules = null;
+            chunkSizer.save();
+        }
+        if (!pendingFile.delete()) {
+            Log.w(TAG, "Unable to delete " + pendingFile);
+        }
+    }
+
+    private boolean syncRules(Map<String, RuleSet> applied, Map<String, RuleSet> targetRules, Handler handler) throws Exception {
+        boolean changed = false;
+        for (String packageName : new ArrayList<>(applied.keySet())) {
+            if (!targetRules.containsKey(packageName)) {
+                apply(packageName, applied.get(packageName), new RuleSet(new ArrayList<>(), new ArrayList<>()), handler);
+                changed = true;
+            }
+        }
+
+        for (Map.Entry<String, RuleSet> entry : targetRules.entrySet()) {
+            String packageName = entry.getKey();
+            RuleSet target = entry.getValue();
+            RuleSet current = applied.get(packageName);
+            if (current != null && current.getHash().equals(target.getHash())) {
+                LogUtils.getInstance().writeInfo("\nDomain rules of " + packageName + " are up to date", handler);
+                continue;
+            }
+            if (current == null) {
+                current = new RuleSet(new ArrayList<>(), new ArrayList<>());
+            }
+            apply(packageName, current, target, handler);
+            changed = true;
+        }
+        return changed;
+    }
+
+    private static RuleSet allowAll(RuleSet ruleSet) {
+        if (ruleSet.allowList.contains("*")) {
+            return ruleSet;
+        }
+        List<String> allowList = new ArrayList<>(ruleSet.allowList);
+        allowList.add("*");
+        return new RuleSet(ruleSet.denyList, allowList);
+    }
+
+    /**
+     * @return the rule set without the allowed domain added by allowAll(), sharing the deny list and its hash
+     */
+    private static RuleSet withoutAllowAll(RuleSet ruleSet) {
+        List<String> allowList = new ArrayList<>(ruleSet.allowList);
+        allowList.remove("*");
+        RuleSet result = new RuleSet(ruleSet.denyList, allowList);
+        result.denyHash = ruleSet.denyHash;
+        return result;
+    }
+
+    private List<String> readSuspended() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(suspendedFile)))) {
+            return readList(in);
+        }
+    }
+
+    private void writeSuspended(List<String> packageNames) throws IOException {
+        File tempFile = new File(suspendedFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            writeList(out, packageNames);
+        }
+        if (!tempFile.renameTo(suspendedFile)) {
+            throw new IOException("Unable to rename " + tempFile + " to " + suspendedFile);
+        }
+    }
+
+    private void apply(String packageName, RuleSet current, RuleSet target, Handler handler) throws Exception {
+        List<String> removedDeny = subtract(current.denyList, target.denyList);
+        List<String> removedAllow = subtract(current.allowList, target.allowList);
+        List<String> addedDeny = subtract(target.denyList, current.denyList);
+        List<String> addedAllow = subtract(target.allowList, current.allowList);
+        LogUtils.getInstance().writeInfo("\nSyncing domain rules of " + packageName + ": +" + addedDeny.size() +
+                " -" + removedDeny.size() + " denied, +" + addedAllow.size() + " -" + removedAllow.size() + " allowed", handler);
+
+        AppIdentity appIdentity = new AppIdentity(packageName, null);
+        if (!removedDeny.isEmpty() || !removedAllow.isEmpty()) {
+            push(appIdentity, removedDeny, removedAllow, false, handler);
+        }
+        if (!addedDeny.isEmpty() || !addedAllow.isEmpty()) {
+            push(appIdentity, addedDeny, addedAllow, true, handler);
+        }
+
+        if (target.isEmpty()) {
+            appliedRules.remove(packageName);
+        } else {
+            appliedRules.put(packageName, target);
+        }
+    }
+
+    /**
+     * Send the domains in chunks of the tuned size, the allowed domains go with the first chunk.
+     * The rule of the next chunk is prepared on a worker thread while the current one is sent.
+     * A failed chunk is sent again after a growing delay and with a smaller size, up to MAX_ATTEMPTS times.
+     * A chunk which fails at the minimum size is not sent again.
+     */
+    private void push(AppIdentity appIdentity, List<String> denyList, List<String> allowList,
+                      boolean add, Handler handler) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Chunk> next = prepare(executor, appIdentity, denyList, allowList, 0);
+            int attempts = 0;
+            while (next != null) {
+                Chunk chunk = next.get();
+                next = chunk.end < denyList.size() ? prepare(executor, appIdentity, denyList, allowList, chunk.end) : null;
+
+                LogUtils.getInstance().writeInfo("\nProcessing " + chunk.start + " to " + chunk.end + " domains...", handler);
+                long startTime = System.nanoTime();
+                try {
+                    List<DomainFilterRule> rules = new ArrayList<>();
+                    rules.add(chunk.rule);
+                    if (add) {
+                        AdhellFactory.getInstance().addDomainFilterRules(rules, handler);
+                    } else {
+                        AdhellFactory.getInstance().removeDomainFilterRules(rules, handler);
+                    }
+                } catch (Exception e) {
+                    if (++attempts >= MAX_ATTEMPTS || !chunkSizer.onFailure()) {
+                        throw e;
+                    }
+                    if (next != null) {
+                        next.cancel(true);
+                    }
+                    long backoff = RETRY_BACKOFF_MILLIS << (attempts - 1);
+                    LogUtils.getInstance().writeInfo("Retrying in " + backoff + " ms...", handler);
+                    Thread.sleep(backoff);
+                    next = prepare(executor, appIdentity, denyList, allowList, chunk.start);
+                    continue;
+                }
+                long duration = System.nanoTime() - startTime;
+                attempts = 0;
+                journal(appIdentity.getPackageName(), add, chunk);
+                chunkSizer.onSuccess(chunk.end - chunk.start, duration);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Future<Chunk> prepare(ExecutorService executor, AppIdentity appIdentity,
+                                  List<String> denyList, List<String> allowList, int start) {
+        int end = Math.min(denyList.size(), start + chunkSizer.getChunkSize());
+        return executor.submit(() -> {
+            // Knox copies the lists into a parcel, which is faster from an array list than from a view
+            List<String> deny = new ArrayList<>(denyList.subList(start, end));
+            List<String> allow = start == 0 ? new ArrayList<>(allowList) : new ArrayList<>();
+            return new Chunk(start, end, deny, allow, new DomainFilterRule(appIdentity, deny, allow));
+        });
+    }
+
+    private static class Chunk {
+        private final int start;
+        private final int end;
+        private final List<String> denyList;
+        private final List<String> allowList;
+        private final DomainFilterRule rule;
+
+        Chunk(int start, int end, List<String> denyList, List<String> allowList, DomainFilterRule rule) {
+            this.start = start;
+            this.end = end;
+            this.denyList = denyList;
+            this.allowList = allowList;
+            this.rule = rule;
+        }
+    }
+
+    /**
+     * Append a committed chunk to the journal, synced to the disk before the next chunk is sent
+     */
+    private void journal(String packageName, boolean add, Chunk chunk) throws IOException {
+        try (FileOutputStream fileStream = new FileOutputStream(journalFile, true)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream));
+            out.writeUTF(packageName);
+            out.writeBoolean(add);
+            writeList(out, chunk.denyList);
+            writeList(out, chunk.allowList);
+            out.flush();
+            fileStream.getFD().sync();
+        }
+    }
+
+    /**
+     * Apply the journaled chunks to the rules, a chunk may already be contained in them
+     */
+    private void replayJournal(Map<String, RuleSet> rules) {
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            while (true) {
+                String packageName;
+                try {
+                    packageName = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                boolean add = in.readBoolean();
+                List<String> denyList = readList(in);
+                List<String> allowList = readList(in);
+
+                RuleSet ruleSet = rules.get(packageName);
+                Set<String> deny = new LinkedHashSet<>(ruleSet == null ? new ArrayList<>() : ruleSet.denyList);
+                Set<String> allow = new LinkedHashSet<>(ruleSet == null ? new ArrayList<>() : ruleSet.allowList);
+                if (add) {
+                    deny.addAll(denyList);
+                    allow.addAll(allowList);
+                } else {
+                    deny.removeAll(denyList);
+                    allow.removeAll(allowList);
+                }
+                if (deny.isEmpty() && allow.isEmpty()) {
+                    rules.remove(packageName);
+                } else {
+                    rules.put(packageName, new RuleSet(new ArrayList<>(deny), new ArrayList<>(allow)));
+                }
+                count++;
+            }
+        } catch (IOException e) {
+            // A chunk which was cut off is sent again
+            Log.w(TAG, "Journal ends with an incomplete chunk", e);
+        }
+        Log.d(TAG, "Replayed " + count + " chunks of an interrupted sync");
+    }
+
+    private static List<String> subtract(List<String> list, List<String> other) {
+        if (other.isEmpty()) {
+            return list;
+        }
+        Set<String> otherSet = new HashSet<>(other);
+        List<String> result = new ArrayList<>();
+        for (String entry : list) {
+            if (!otherSet.contains(entry)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    private Map<String, RuleSet> getAppliedRules() {
+        if (appliedRules == null) {
+            appliedRules = load();
+        }
+        return appliedRules;
+    }
+
+    private Map<String, RuleSet> load() {
+        Map<String, RuleSet> rules = loadState();
+        if (journalFile.exists()) {
+            replayJournal(rules);
+        }
+        return rules;
+    }
+
+    private Map<String, RuleSet> loadState() {
+        Map<String, RuleSet> rules = new LinkedHashMap<>();
+        if (!stateFile.exists()) {
+            return rules;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)))) {
+            // A record of an unknown format is treated as no record
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return rules;
+            }
+            int listCount = in.readInt();
+            Map<String, List<String>> denyLists = new HashMap<>();
+            for (int i = 0; i < listCount; i++) {
+                String denyHash = in.readUTF();
+                denyLists.put(denyHash, readList(in));
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String packageName = in.readUTF();
+                String hash = in.readUTF();
+                String denyHash = in.readUTF();
+                List<String> denyList = denyLists.get(denyHash);
+                if (denyList == null) {
+                    throw new IOException("Unknown deny list " + denyHash + " of " + packageName);
+                }
+                RuleSet ruleSet = new RuleSet(denyList, readList(in));
+                ruleSet.hash = hash;
+                ruleSet.denyHash = denyHash;
+                rules.put(packageName, ruleSet);
+            }
+        } catch (IOException e) {
+            // Without a record every rule is sent again
+            Log.e(TAG, "Unable to read " + stateFile, e);
+            rules.clear();
+        }
+        return rules;
+    }
+
+    private void save() throws IOException {
+        if (appliedRules.isEmpty()) {
+            if (stateFile.exists() && !stateFile.delete()) {
+                throw new IOException("Unable to delete " + stateFile);
+            }
+            return;
+        }
+
+        File tempFile = new File(stateFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            // App identities usually share the same deny list instance, which is hashed only once
+            Map<List<String>, String> knownHashes = new IdentityHashMap<>();
+            Map<String, List<String>> denyLists = new LinkedHashMap<>();
+            for (RuleSet ruleSet : appliedRules.values()) {
+                if (ruleSet.denyHash == null) {
+                    ruleSet.denyHash = knownHashes.get(ruleSet.denyList);
+                }
+                knownHashes.put(ruleSet.denyList, ruleSet.getDenyHash());
+                if (!denyLists.containsKey(ruleSet.getDenyHash())) {
+                    denyLists.put(ruleSet.getDenyHash(), ruleSet.denyList);
+                }
+            }
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(denyLists.size());
+            for (Map.Entry<String, List<String>> entry : denyLists.entrySet()) {
+                out.writeUTF(entry.getKey());
+                writeList(out, entry.getValue());
+            }
+            out.writeInt(appliedRules.size());
+            for (Map.Entry<String, RuleSet> entry : appliedRules.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue().getHash());
+                out.writeUTF(entry.getValue().getDenyHash());
+                writeList(out, entry.getValue().allowList);
+            }
+        }
+        if (!tempFile.renameTo(stateFile)) {
+            throw new IOException("Unable to rename " + tempFile + " to " + stateFile);
+        }
+    }
+
+    private static void writeList(DataOutputStream out, List<String> list) throws IOException {
+        out.writeInt(list.size());
+        for (String entry : list) {
+            out.writeUTF(entry);
+        }
+    }
+
+    private static List<String> readList(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<String> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(in.readUTF());
+        }
+        return list;
+    }
+}
@@ -0,0 +1,31 @@
+package com.fusionjack.adhell3.blocker;
+
+import com.sec.enterprise.firewall.DomainFilterReport;
+import com.sec.enterprise.firewall.DomainFilterRule;
+import com.sec.enterprise.firewall.FirewallResponse;
+import com.sec.enterprise.firewall.FirewallRule;
+
+import java.util.List;
+
+/**
+ * The calls of the Knox firewall which are used by the app.
+ * The signatures follow {@link com.sec.enterprise.firewall.Firewall}, so that the Knox implementation
+ * only delegates and another implementation can replace Knox where no device is available.
+ */
+public interface FirewallGateway {
+    boolean isFirewallEnabled();
+    FirewallResponse[] enableFirewall(boolean enable);
+
+    boolean isDomainFilterReportEnabled();
+    boolean enableDomainFilterReport(boolean enable);
+
+    FirewallResponse[] addDomainFilterRules(List<DomainFilterRule> rules);
+    FirewallResponse[] removeDomainFilterRules(List<DomainFilterRule> rules);
+    List<DomainFilterRule> getDomainFilterRules(List<String> packageNames);
+
+    FirewallResponse[] addRules(FirewallRule[] rules);
+    FirewallRule[] getRules(int ruleType, FirewallRule.Status status);
+    FirewallResponse[] clearRules(int ruleType);
+
+    List<DomainFilterReport> getDomainFilterReport(List<String> packageNames);
+}
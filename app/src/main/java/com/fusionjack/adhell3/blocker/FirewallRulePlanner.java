@@ -0,0 +1,129 @@
+package com.fusionjack.adhell3.blocker;
+
+import android.os.Handler;
+
+import com.fusionjack.adhell3.db.AppDatabase;
+import com.fusionjack.adhell3.db.entity.AppInfo;
+import com.fusionjack.adhell3.db.entity.UserBlockUrl;
+import com.fusionjack.adhell3.utils.AdhellFactory;
+import com.fusionjack.adhell3.utils.LogUtils;
+import com.google.common.collect.Lists;
+import com.sec.enterprise.AppIdentity;
+import com.sec.enterprise.firewall.Firewall;
+import com.sec.enterprise.firewall.FirewallRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+/**
+ * Plans the firewall rules of the custom rules and the mobile and wifi restricted apps in one pass.
+ * The enabled rules are fetched once and indexed by package with ip and port, and by package with
+ * network interface, so that every rule is checked with one lookup. The missing rules are added in batches.
+ */
+class FirewallRulePlanner {
+    private static final int BATCH_SIZE = 100;
+
+    private final FirewallGateway firewall;
+    private final AppDatabase appDatabase;
+    private final Handler handler;
+    private final Set<String> addressKeys = new HashSet<>();
+    private final Set<String> interfaceKeys = new HashSet<>();
+
+    FirewallRulePlanner(FirewallGateway firewall, AppDatabase appDatabase, Handler handler) {
+        this.firewall = firewall;
+        this.appDatabase = appDatabase;
+        this.handler = handler;
+    }
+
+    void apply() throws Exception {
+        List<FirewallRule> missingRules = plan();
+        LogUtils.getInstance().writeInfo("\nMissing firewall rules: " + missingRules.size(), handler);
+        for (List<FirewallRule> batch : Lists.partition(missingRules, BATCH_SIZE)) {
+            AdhellFactory.getInstance().addFirewallRules(batch.toArray(new FirewallRule[0]), handler);
+        }
+    }
+
+    List<FirewallRule> plan() {
+        index(firewall.getRules(Firewall.FIREWALL_DENY_RULE, FirewallRule.Status.ENABLED));
+
+        List<FirewallRule> missingRules = new ArrayList<>();
+        planCustomRules(missingRules);
+
+        LogUtils.getInstance().writeInfo("\nProcessing mobile restricted apps...", handler);
+        planRestrictedApps(appDatabase.applicationInfoDao().getMobileRestrictedApps(),
+                Firewall.NetworkInterface.MOBILE_DATA_ONLY, missingRules);
+
+        LogUtils.getInstance().writeInfo("\nProcessing wifi restricted apps...", handler);
+        planRestrictedApps(appDatabase.applicationInfoDao().getWifiRestrictedApps(),
+                Firewall.NetworkInterface.WIFI_DATA_ONLY, missingRules);
+        return missingRules;
+    }
+
+    private void index(FirewallRule[] enabledRules) {
+        if (enabledRules == null) {
+            return;
+        }
+        for (FirewallRule enabledRule : enabledRules) {
+            String packageName = normalize(enabledRule.getPackageName());
+            addressKeys.add(packageName + '|' + normalize(enabledRule.getIpAddress()) + '|' + normalize(enabledRule.getPortNumber()));
+            interfaceKeys.add(packageName + '|' + enabledRule.getNetworkInterface());
+        }
+    }
+
+    private void planCustomRules(List<FirewallRule> missingRules) {
+        LogUtils.getInstance().writeInfo("\nProcessing custom rules...", handler);
+
+        int count = 0;
+        List<UserBlockUrl> userBlockUrls = appDatabase.userBlockUrlDao().getAll2();
+        for (UserBlockUrl userBlockUrl : userBlockUrls) {
+            if (userBlockUrl.url.indexOf('|') != -1) {
+                StringTokenizer tokens = new StringTokenizer(userBlockUrl.url, "|");
+                if (tokens.countTokens() == 3) {
+                    String packageName = tokens.nextToken().trim();
+                    String ip = tokens.nextToken().trim();
+                    String port = tokens.nextToken().trim();
+
+                    LogUtils.getInstance().writeInfo("Processing firewall rule for '" + packageName + "|" + ip + "|" + port + "'...", handler);
+                    if (addressKeys.add(normalize(packageName) + '|' + normalize(ip) + '|' + normalize(port))) {
+                        for (Firewall.AddressType addressType : Arrays.asList(Firewall.AddressType.IPV4, Firewall.AddressType.IPV6)) {
+                            FirewallRule rule = new FirewallRule(FirewallRule.RuleType.DENY, addressType);
+                            rule.setIpAddress(ip);
+                            rule.setPortNumber(port);
+                            rule.setApplication(new AppIdentity(packageName, null));
+                            missingRules.add(rule);
+                        }
+                    } else {
+                        LogUtils.getInstance().writeInfo("The firewall rule is already been enabled", handler);
+                    }
+
+                    ++count;
+                }
+            }
+        }
+
+        LogUtils.getInstance().writeInfo("Custom rule size: " + count, handler);
+    }
+
+    private void planRestrictedApps(List<AppInfo> restrictedApps, Firewall.NetworkInterface networkInterface,
+                                    List<FirewallRule> missingRules) {
+        LogUtils.getInstance().writeInfo("Restricted apps size: " + restrictedApps.size(), handler);
+        for (AppInfo app : restrictedApps) {
+            String packageName = app.packageName;
+            LogUtils.getInstance().writeInfo("Processing firewall rule for '" + packageName + "'...", handler);
+            if (interfaceKeys.add(normalize(packageName) + '|' + networkInterface)) {
+                missingRules.addAll(Arrays.asList(AdhellFactory.getInstance().createFirewallRules(packageName, networkInterface)));
+            } else {
+                LogUtils.getInstance().writeInfo("The firewall rule is already been enabled", handler);
+            }
+        }
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,72 @@
+package com.fusionjack.adhell3.blocker;
+
+import com.sec.enterprise.firewall.DomainFilterReport;
+import com.sec.enterprise.firewall.DomainFilterRule;
+import com.sec.enterprise.firewall.Firewall;
+import com.sec.enterprise.firewall.FirewallResponse;
+import com.sec.enterprise.firewall.FirewallRule;
+
+import java.util.List;
+
+public class KnoxFirewallGateway implements FirewallGateway {
+    private final Firewall firewall;
+
+    public KnoxFirewallGateway(Firewall firewall) {
+        this.firewall = firewall;
+    }
+
+    @Override
+    public boolean isFirewallEnabled() {
+        return firewall.isFirewallEnabled();
+    }
+
+    @Override
+    public FirewallResponse[] enableFirewall(boolean enable) {
+        return firewall.enableFirewall(enable);
+    }
+
+    @Override
+    public boolean isDomainFilterReportEnabled() {
+        return firewall.isDomainFilterReportEnabled();
+    }
+
+    @Override
+    public boolean enableDomainFilterReport(boolean enable) {
+        return firewall.enableDomainFilterReport(enable);
+    }
+
+    @Override
+    public FirewallResponse[] addDomainFilterRules(List<DomainFilterRule> rules) {
+        return firewall.addDomainFilterRules(rules);
+    }
+
+    @Override
+    public FirewallResponse[] removeDomainFilterRules(List<DomainFilterRule> rules) {
+        return firewall.removeDomainFilterRules(rules);
+    }
+
+    @Override
+    public List<DomainFilterRule> getDomainFilterRules(List<String> packageNames) {
+        return firewall.getDomainFilterRules(packageNames);
+    }
+
+    @Override
+    public FirewallResponse[] addRules(FirewallRule[] rules) {
+        return firewall.addRules(rules);
+    }
+
+    @Override
+    public FirewallRule[] getRules(int ruleType, FirewallRule.Status status) {
+        return firewall.getRules(ruleType, status);
+    }
+
+    @Override
+    public FirewallResponse[] clearRules(int ruleType) {
+        return firewall.clearRules(ruleType);
+    }
+
+    @Override
+    public List<DomainFilterReport> getDomainFilterReport(List<String> packageNames) {
+        return firewall.getDomainFilterReport(packageNames);
+    }
+}
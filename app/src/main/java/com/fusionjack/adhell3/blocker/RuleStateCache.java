@@ -0,0 +1,156 @@
+package com.fusionjack.adhell3.blocker;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.fusionjack.adhell3.utils.BlockUrlUtils;
+import com.sec.enterprise.firewall.DomainFilterRule;
+import com.sec.enterprise.firewall.Firewall;
+import com.sec.enterprise.firewall.FirewallRule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whether domain and firewall rules are applied and how many of each kind, kept in the preferences.
+ * The state is set whenever the app applies or clears rules, so that reading it never asks Knox.
+ * It is compared against Knox in the background at most once per VALIDATION_INTERVAL, to notice
+ * rules which were changed outside of the app.
+ */
+public class RuleStateCache {
+    private static final String TAG = RuleStateCache.class.getCanonicalName();
+    private static final long VALIDATION_INTERVAL = TimeUnit.MINUTES.toMillis(15);
+    private static final String DOMAIN_RULES_APPLIED = "adhell_rule_state_domain_applied";
+    private static final String BLOCKED_DOMAIN_COUNT = "adhell_rule_state_blocked_domains";
+    private static final String WHITELISTED_APP_COUNT = "adhell_rule_state_whitelisted_apps";
+    private static final String FIREWALL_RULES_APPLIED = "adhell_rule_state_firewall_applied";
+    private static final String MOBILE_RESTRICTED_COUNT = "adhell_rule_state_mobile_restricted";
+    private static final String WIFI_RESTRICTED_COUNT = "adhell_rule_state_wifi_restricted";
+    private static final String DENY_RULE_COUNT = "adhell_rule_state_deny_rules";
+    private static final String VALIDATED_TIME = "adhell_rule_state_validated";
+
+    private final SharedPreferences sharedPreferences;
+
+    public RuleStateCache(SharedPreferences sharedPreferences) {
+        this.sharedPreferences = sharedPreferences;
+    }
+
+    public boolean isDomainRuleApplied() {
+        return sharedPreferences.getBoolean(DOMAIN_RULES_APPLIED, false);
+    }
+
+    public int getBlockedDomainCount() {
+        return sharedPreferences.getInt(BLOCKED_DOMAIN_COUNT, 0);
+    }
+
+    public int getWhitelistedAppCount() {
+        return sharedPreferences.getInt(WHITELISTED_APP_COUNT, 0);
+    }
+
+    public boolean isFirewallRuleApplied() {
+        return sharedPreferences.getBoolean(FIREWALL_RULES_APPLIED, false);
+    }
+
+    public int getMobileRestrictedCount() {
+        return sharedPreferences.getInt(MOBILE_RESTRICTED_COUNT, 0);
+    }
+
+    public int getWifiRestrictedCount() {
+        return sharedPreferences.getInt(WIFI_RESTRICTED_COUNT, 0);
+    }
+
+    public int getDenyRuleCount() {
+        return sharedPreferences.getInt(DENY_RULE_COUNT, 0);
+    }
+
+    /**
+     * @return whether the state has not been compared against Knox recently, or never
+     */
+    public boolean isStale() {
+        long validatedTime = sharedPreferences.getLong(VALIDATED_TIME, 0);
+        return System.currentTimeMillis() - validatedTime > VALIDATION_INTERVAL;
+    }
+
+    public void setDomainRules(boolean applied, int blockedDomainCount, int whitelistedAppCount) {
+        sharedPreferences.edit()
+                .putBoolean(DOMAIN_RULES_APPLIED, applied)
+                .putInt(BLOCKED_DOMAIN_COUNT, blockedDomainCount)
+                .putInt(WHITELISTED_APP_COUNT, whitelistedAppCount)
+                .apply();
+    }
+
+    public void setFirewallRules(FirewallRule[] rules) {
+        int mobileCount = 0;
+        int wifiCount = 0;
+        int denyCount = 0;
+        if (rules != null) {
+            for (FirewallRule rule : rules) {
+                switch (rule.getNetworkInterface()) {
+                    case ALL_NETWORKS:
+                        denyCount++;
+                        break;
+                    case MOBILE_DATA_ONLY:
+                        mobileCount++;
+                        break;
+                    case WIFI_DATA_ONLY:
+                        wifiCount++;
+                        break;
+                }
+            }
+        }
+        sharedPreferences.edit()
+                .putBoolean(FIREWALL_RULES_APPLIED, rules != null && rules.length > 0)
+                .putInt(MOBILE_RESTRICTED_COUNT, mobileCount)
+                .putInt(WIFI_RESTRICTED_COUNT, wifiCount)
+                .putInt(DENY_RULE_COUNT, denyCount)
+                .apply();
+    }
+
+    /**
+     * Read the rules from Knox and correct the state, must not be called on the main thread
+     *
+     * @param whitelistedPackages package names of the whitelisted apps
+     * @return whether the state has changed
+     */
+    public synchronized boolean validate(FirewallGateway firewall, List<String> whitelistedPackages) {
+        boolean domainApplied = isDomainRuleApplied();
+        int blockedDomainCount = getBlockedDomainCount();
+        int whitelistedAppCount = getWhitelistedAppCount();
+        boolean firewallApplied = isFirewallRuleApplied();
+
+        List<String> packageNameList = new ArrayList<>();
+        packageNameList.add(Firewall.FIREWALL_ALL_PACKAGES);
+        List<DomainFilterRule> domainRules = firewall.getDomainFilterRules(packageNameList);
+        boolean newDomainApplied = domainApplied;
+        int newBlockedDomainCount = blockedDomainCount;
+        if (domainRules != null) {
+            newDomainApplied = domainRules.size() > 0;
+            newBlockedDomainCount = newDomainApplied ? domainRules.get(0).getDenyDomains().size() : 0;
+        } else if (BlockUrlUtils.isDomainLimitAboveDefault()) {
+            // The rules will be null when the total domains more than 15000, they are applied in this case
+            newDomainApplied = true;
+        }
+
+        int newWhitelistedAppCount = 0;
+        for (String packageName : whitelistedPackages) {
+            packageNameList.clear();
+            packageNameList.add(packageName);
+            domainRules = firewall.getDomainFilterRules(packageNameList);
+            if (domainRules != null && domainRules.size() > 0) {
+                newWhitelistedAppCount += domainRules.get(0).getAllowDomains().size();
+            }
+        }
+        setDomainRules(newDomainApplied, newBlockedDomainCount, newWhitelistedAppCount);
+
+        setFirewallRules(firewall.getRules(Firewall.FIREWALL_DENY_RULE, null));
+        sharedPreferences.edit().putLong(VALIDATED_TIME, System.currentTimeMillis()).apply();
+
+        boolean changed = domainApplied != newDomainApplied || blockedDomainCount != newBlockedDomainCount ||
+                whitelistedAppCount != newWhitelistedAppCount || firewallApplied != isFirewallRuleApplied();
+        if (changed) {
+            Log.d(TAG, "Rule state has been corrected from Knox");
+        }
+        return changed;
+    }
+}
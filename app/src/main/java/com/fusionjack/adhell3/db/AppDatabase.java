@@ -16,19 +16,25 @@ import com.fusionjack.adhell3.db.dao.DnsPackageDao;
 import com.fusionjack.adhell3.db.dao.DisabledPackageDao;
 import com.fusionjack.adhell3.db.dao.FirewallWhitelistedPackageDao;
 import com.fusionjack.adhell3.db.dao.PolicyPackageDao;
+import com.fusionjack.adhell3.db.dao.ReportBlockedStatDao;
 import com.fusionjack.adhell3.db.dao.ReportBlockedUrlDao;
 import com.fusionjack.adhell3.db.dao.RestrictedPackageDao;
 import com.fusionjack.adhell3.db.dao.UserBlockUrlDao;
 import com.fusionjack.adhell3.db.dao.WhiteUrlDao;
 import com.fusionjack.adhell3.db.entity.AppInfo;
 import com.fusionjack.adhell3.db.entity.AppPermission;
-import com.fusionjack.adhell3.db.entity.BlockUrl;
 import com.fusionjack.adhell3.db.entity.BlockUrlProvider;
 import com.fusionjack.adhell3.db.entity.DnsPackage;
 import com.fusionjack.adhell3.db.entity.DisabledPackage;
+import com.fusionjack.adhell3.db.entity.Domain;
 import com.fusionjack.adhell3.db.entity.FirewallWhitelistedPackage;
 import com.fusionjack.adhell3.db.entity.PolicyPackage;
-import com.fusionjack.adhell3.db.entity.ReportBlockedUrl;
+import com.fusionjack.adhell3.db.entity.ProviderDomain;
+import com.fusionjack.adhell3.db.entity.ReportBlockedEvent;
+import com.fusionjack.adhell3.db.entity.ReportBlockedStat;
+import com.fusionjack.adhell3.db.entity.ReportCursor;
+import com.fusionjack.adhell3.db.entity.ReportDomain;
+import com.fusionjack.adhell3.db.entity.ReportPackage;
 import com.fusionjack.adhell3.db.entity.RestrictedPackage;
 import com.fusionjack.adhell3.db.entity.UserBlockUrl;
 import com.fusionjack.adhell3.db.entity.WhiteUrl;
@@ -43,23 +49,37 @@ import com.fusionjack.adhell3.db.migration.Migration_21_22;
 import com.fusionjack.adhell3.db.migration.Migration_22_23;
 import com.fusionjack.adhell3.db.migration.Migration_23_24;
 import com.fusionjack.adhell3.db.migration.Migration_24_25;
+import com.fusionjack.adhell3.db.migration.Migration_25_26;
+import com.fusionjack.adhell3.db.migration.Migration_26_27;
+import com.fusionjack.adhell3.db.migration.Migration_27_28;
+import com.fusionjack.adhell3.db.migration.Migration_28_29;
+import com.fusionjack.adhell3.db.migration.Migration_29_30;
+import com.fusionjack.adhell3.db.migration.Migration_30_31;
+import com.fusionjack.adhell3.db.migration.Migration_31_32;
+import com.fusionjack.adhell3.db.migration.Migration_32_33;
+import com.fusionjack.adhell3.db.migration.Migration_33_34;
 
 import java.io.File;
 
 @Database(entities = {
         AppInfo.class,
         AppPermission.class,
-        BlockUrl.class,
         BlockUrlProvider.class,
+        Domain.class,
+        ProviderDomain.class,
         DisabledPackage.class,
         RestrictedPackage.class,
         FirewallWhitelistedPackage.class,
         PolicyPackage.class,
-        ReportBlockedUrl.class,
+        ReportDomain.class,
+        ReportPackage.class,
+        ReportBlockedEvent.class,
+        ReportBlockedStat.class,
+        ReportCursor.class,
         UserBlockUrl.class,
         WhiteUrl.class,
         DnsPackage.class
-}, version = 25)
+}, version = 34)
 
 public abstract class AppDatabase extends RoomDatabase {
     private static final Migration MIGRATION_14_15 = new Migration_14_15(14, 15);
@@ -73,6 +93,15 @@ public abstract class AppDatabase extends RoomDatabase {
     private static final Migration MIGRATION_22_23 = new Migration_22_23(22, 23);
     private static final Migration MIGRATION_23_24 = new Migration_23_24(23, 24);
     private static final Migration MIGRATION_24_25 = new Migration_24_25(24, 25);
+    private static final Migration MIGRATION_25_26 = new Migration_25_26(25, 26);
+    private static final Migration MIGRATION_26_27 = new Migration_26_27(26, 27);
+    private static final Migration MIGRATION_27_28 = new Migration_27_28(27, 28);
+    private static final Migration MIGRATION_28_29 = new Migration_28_29(28, 29);
+    private static final Migration MIGRATION_29_30 = new Migration_29_30(29, 30);
+    private static final Migration MIGRATION_30_31 = new Migration_30_31(30, 31);
+    private static final Migration MIGRATION_31_32 = new Migration_31_32(31, 32);
+    private static final Migration MIGRATION_32_33 = new Migration_32_33(32, 33);
+    private static final Migration MIGRATION_33_34 = new Migration_33_34(33, 34);
     private static AppDatabase INSTANCE;
 
     public static final String DATABASE_FOLDER = "adhell3";
@@ -107,6 +136,15 @@ public abstract class AppDatabase extends RoomDatabase {
                             .addMigrations(MIGRATION_22_23)
                             .addMigrations(MIGRATION_23_24)
                             .addMigrations(MIGRATION_24_25)
+                            .addMigrations(MIGRATION_25_26)
+                            .addMigrations(MIGRATION_26_27)
+                            .addMigrations(MIGRATION_27_28)
+                            .addMigrations(MIGRATION_28_29)
+                            .addMigrations(MIGRATION_29_30)
+                            .addMigrations(MIGRATION_30_31)
+                            .addMigrations(MIGRATION_31_32)
+                            .addMigrations(MIGRATION_32_33)
+                            .addMigrations(MIGRATION_33_34)
                             .build();
         }
         return INSTANCE;
@@ -122,6 +160,8 @@ public abstract class AppDatabase extends RoomDatabase {
 
     public abstract ReportBlockedUrlDao reportBlockedUrlDao();
 
+    public abstract ReportBlockedStatDao reportBlockedStatDao();
+
     public abstract AppInfoDao applicationInfoDao();
 
     public abstract WhiteUrlDao whiteUrlDao();
@@ -0,0 +1,124 @@
+package com.fusionjack.adhell3.db;
+
+import android.arch.persistence.db.SupportSQLiteStatement;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Inserts the urls of a provider through compiled statements, without creating entities.
+ * A url is added to the Domain table once and referenced by the provider in ProviderDomain.
+ * Every batch of urls is committed in its own transaction, unless the writer is opened inside a running
+ * transaction, which it joins then. The last batch is only kept if commit() is called, closing the writer
+ * without it rolls that batch back.
+ */
+public class BlockUrlWriter implements Closeable {
+    private static final String TAG = BlockUrlWriter.class.getCanonicalName();
+    private static final String INSERT_DOMAIN_SQL = "INSERT OR IGNORE INTO Domain (url) VALUES (?)";
+    private static final String INSERT_PROVIDER_DOMAIN_SQL = "INSERT OR IGNORE INTO ProviderDomain (providerId, domainId) " +
+            "SELECT ?, _id FROM Domain WHERE url = ?";
+    public static final int DEFAULT_BATCH_SIZE = 5000;
+
+    private final AppDatabase appDatabase;
+    private final SupportSQLiteStatement domainStatement;
+    private final SupportSQLiteStatement providerDomainStatement;
+    private final long urlProviderId;
+    private final int batchSize;
+    private final boolean ownTransaction;
+    private final long startTime;
+    private boolean committed;
+    private int batchCount;
+    private int rowCount;
+
+    public BlockUrlWriter(AppDatabase appDatabase, long urlProviderId) {
+        this(appDatabase, urlProviderId, DEFAULT_BATCH_SIZE);
+    }
+
+    public BlockUrlWriter(AppDatabase appDatabase, long urlProviderId, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.appDatabase = appDatabase;
+        this.domainStatement = appDatabase.compileStatement(INSERT_DOMAIN_SQL);
+        this.providerDomainStatement = appDatabase.compileStatement(INSERT_PROVIDER_DOMAIN_SQL);
+        this.urlProviderId = urlProviderId;
+        this.batchSize = batchSize;
+        this.ownTransaction = !appDatabase.inTransaction();
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return whether the url has been added to the provider, false if the provider already has it
+     */
+    public boolean insert(String url) {
+        if (ownTransaction && batchCount == 0) {
+            appDatabase.beginTransaction();
+        }
+        domainStatement.bindString(1, url);
+        domainStatement.executeInsert();
+        providerDomainStatement.bindLong(1, urlProviderId);
+        providerDomainStatement.bindString(2, url);
+        boolean inserted = providerDomainStatement.executeInsert() != -1;
+        if (inserted) {
+            rowCount++;
+        }
+        if (++batchCount == batchSize) {
+            commitBatch();
+        }
+        return inserted;
+    }
+
+    public void insertAll(Iterable<String> urls) {
+        for (String url : urls) {
+            insert(url);
+        }
+    }
+
+    /**
+     * Keep the last batch, in a running transaction the urls are kept when that one succeeds
+     */
+    public void commit() {
+        if (committed) {
+            return;
+        }
+        committed = true;
+        commitBatch();
+    }
+
+    private void commitBatch() {
+        if (ownTransaction && batchCount > 0) {
+            try {
+                appDatabase.setTransactionSuccessful();
+            } finally {
+                appDatabase.endTransaction();
+            }
+        }
+        batchCount = 0;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public long getRowsPerSecond() {
+        long elapsedTime = Math.max(1, System.currentTimeMillis() - startTime);
+        return rowCount * 1000L / elapsedTime;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!committed && ownTransaction && batchCount > 0) {
+                // The batches committed so far are kept
+                appDatabase.endTransaction();
+                Log.w(TAG, "Rolled back " + batchCount + " urls of provider " + urlProviderId);
+                return;
+            }
+        } finally {
+            domainStatement.close();
+            providerDomainStatement.close();
+        }
+        Log.d(TAG, "Inserted " + rowCount + " urls of provider " + urlProviderId + " (" + getRowsPerSecond() + " rows/s)");
+    }
+}
@@ -16,6 +16,7 @@ import com.fusionjack.adhell3.db.entity.UserBlockUrl;
 import com.fusionjack.adhell3.db.entity.WhiteUrl;
 import com.fusionjack.adhell3.utils.AdhellAppIntegrity;
 import com.fusionjack.adhell3.utils.AdhellFactory;
+import com.fusionjack.adhell3.utils.BlockUrlUtils;
 import com.fusionjack.adhell3.utils.DeviceAdminInteractor;
 
 import java.io.File;
@@ -206,6 +207,9 @@ public final class DatabaseFactory {
             writer.name("selected").value(provider.selected);
             writer.name("policyPackageId").value(provider.policyPackageId == null ?
                     AdhellAppIntegrity.DEFAULT_POLICY_ID : provider.policyPackageId);
+            if (provider.format != null) {
+                writer.name("format").value(provider.format);
+            }
             writer.endObject();
         }
         writer.endArray();
@@ -424,11 +428,14 @@ public final class DatabaseFactory {
         boolean deletable = false;
         boolean selected = false;
         String policyPackageId = "";
+        String format;
 
         appDatabase.blockUrlProviderDao().deleteAll();
+        BlockUrlUtils.deleteAllRawCaches();
 
         reader.beginArray();
         while (reader.hasNext()) {
+            format = null;
             reader.beginObject();
             while (reader.hasNext()) {
                 String name = reader.nextName();
@@ -440,6 +447,8 @@ public final class DatabaseFactory {
                     selected = reader.nextBoolean();
                 } else if (name.equalsIgnoreCase("policyPackageId")) {
                     policyPackageId = reader.nextString();
+                } else if (name.equalsIgnoreCase("format")) {
+                    format = reader.nextString();
                 }
             }
             reader.endObject();
@@ -449,6 +458,7 @@ public final class DatabaseFactory {
             provider.deletable = deletable;
             provider.selected = selected;
             provider.policyPackageId = policyPackageId;
+            provider.format = format;
             provider.id = appDatabase.blockUrlProviderDao().insertAll(provider)[0];
         }
         reader.endArray();
@@ -1,9 +1,8 @@
 package com.fusionjack.adhell3.db.dao;
 
 import android.arch.persistence.room.Dao;
-import android.arch.persistence.room.Insert;
-import android.arch.persistence.room.OnConflictStrategy;
 import android.arch.persistence.room.Query;
+import android.database.Cursor;
 
 import com.fusionjack.adhell3.db.entity.BlockUrl;
 
@@ -12,24 +11,59 @@ import java.util.List;
 @Dao
 public interface BlockUrlDao {
 
-    @Query("SELECT * FROM BlockUrl")
+    @Query("SELECT d._id AS _id, d.url AS url, pd.providerId AS urlProviderId " +
+            "FROM ProviderDomain pd INNER JOIN Domain d ON d._id = pd.domainId")
     List<BlockUrl> getAll();
 
-    @Query("SELECT * FROM BlockUrl WHERE urlProviderId = :urlProviderId")
+    @Query("SELECT d._id AS _id, d.url AS url, pd.providerId AS urlProviderId " +
+            "FROM ProviderDomain pd INNER JOIN Domain d ON d._id = pd.domainId " +
+            "WHERE pd.providerId = :urlProviderId")
     List<BlockUrl> getUrlsByProviderId(long urlProviderId);
 
-    @Query("SELECT COUNT(*) FROM BlockUrl WHERE urlProviderId = :urlProviderId")
+    @Query("SELECT COUNT(*) FROM ProviderDomain WHERE providerId = :urlProviderId")
     int getUrlCountByProviderId(long urlProviderId);
 
-    @Query("DELETE FROM BlockUrl")
+    @Query("SELECT COUNT(DISTINCT pd.domainId) FROM ProviderDomain pd " +
+            "INNER JOIN BlockUrlProviders p ON p._id = pd.providerId WHERE p.selected = 1")
+    int getUniqueUrlCount();
+
+    @Query("SELECT COUNT(*) FROM ProviderDomain pd " +
+            "INNER JOIN BlockUrlProviders p ON p._id = pd.providerId WHERE p.selected = 1")
+    int getSelectedUrlCount();
+
+    @Query("SELECT d.url FROM ProviderDomain pd " +
+            "INNER JOIN Domain d ON d._id = pd.domainId " +
+            "INNER JOIN BlockUrlProviders p ON p._id = pd.providerId WHERE p.selected = 1")
+    List<String> getSelectedUrls();
+
+    @Query("SELECT d.url FROM ProviderDomain pd " +
+            "INNER JOIN Domain d ON d._id = pd.domainId " +
+            "INNER JOIN BlockUrlProviders p ON p._id = pd.providerId WHERE p.selected = 1 AND d.url LIKE :url")
+    List<String> getSelectedUrlsLike(String url);
+
+    // Urls of all selected providers and user blocked urls without a firewall rule, each url only once
+    @Query("SELECT d.url FROM ProviderDomain pd " +
+            "INNER JOIN Domain d ON d._id = pd.domainId " +
+            "INNER JOIN BlockUrlProviders p ON p._id = pd.providerId WHERE p.selected = 1 " +
+            "UNION " +
+            "SELECT url FROM UserBlockUrl WHERE url NOT LIKE '%|%'")
+    Cursor getUniqueBlockedUrls();
+
+    @Query("DELETE FROM ProviderDomain")
     void deleteAll();
 
-    @Insert(onConflict = OnConflictStrategy.REPLACE)
-    void insertAll(List<BlockUrl> blockUrls);
+    @Query("DELETE FROM ProviderDomain WHERE providerId = :urlProviderId")
+    void deleteByProviderId(long urlProviderId);
+
+    @Query("DELETE FROM ProviderDomain WHERE providerId = :urlProviderId AND domainId IN (:domainIds)")
+    void deleteByDomainIds(long urlProviderId, List<Long> domainIds);
 
-    @Insert(onConflict = OnConflictStrategy.REPLACE)
-    void insert(BlockUrl... blockUrls);
+    // Domains which are not referenced by any provider anymore
+    @Query("DELETE FROM Domain WHERE _id NOT IN (SELECT domainId FROM ProviderDomain)")
+    int deleteOrphanDomains();
 
-    @Query("SELECT * FROM BlockUrl WHERE urlProviderId = :urlProviderId AND url LIKE :url")
+    @Query("SELECT d._id AS _id, d.url AS url, pd.providerId AS urlProviderId " +
+            "FROM ProviderDomain pd INNER JOIN Domain d ON d._id = pd.domainId " +
+            "WHERE pd.providerId = :urlProviderId AND d.url LIKE :url")
     List<BlockUrl> getByUrl(long urlProviderId, String url);
 }
@@ -0,0 +1,53 @@
+package com.fusionjack.adhell3.db.dao;
+
+import android.arch.persistence.room.Dao;
+import android.arch.persistence.room.Insert;
+import android.arch.persistence.room.Query;
+
+import com.fusionjack.adhell3.db.entity.ReportBlockedCount;
+import com.fusionjack.adhell3.db.entity.ReportBlockedStat;
+import com.fusionjack.adhell3.db.entity.ReportBlockedTrend;
+
+import java.util.List;
+
+@Dao
+public interface ReportBlockedStatDao {
+
+    @Insert
+    void insert(ReportBlockedStat reportBlockedStat);
+
+    @Query("UPDATE ReportBlockedStat SET count = count + :count " +
+            "WHERE granularity = :granularity AND bucket = :bucket AND domainId = :domainId AND packageId = :packageId")
+    int addCount(int granularity, long bucket, long domainId, long packageId, int count);
+
+    /**
+     * Sum up the hourly stats before the given time per day, offset is the time zone offset of the days
+     */
+    @Query("SELECT 1 AS granularity, (bucket + :offset) / 86400000 * 86400000 - :offset AS bucket, " +
+            "domainId, packageId, SUM(count) AS count FROM ReportBlockedStat " +
+            "WHERE granularity = 0 AND bucket < :before GROUP BY 2, domainId, packageId")
+    List<ReportBlockedStat> getHourlyPerDayBefore(long before, long offset);
+
+    @Query("DELETE FROM ReportBlockedStat WHERE granularity = :granularity AND bucket < :bucket")
+    void deleteBefore(int granularity, long bucket);
+
+    @Query("SELECT COALESCE(SUM(count), 0) FROM ReportBlockedStat WHERE bucket >= :since")
+    int getTotalSince(long since);
+
+    @Query("SELECT d.url AS name, s.count FROM " +
+            "(SELECT domainId, SUM(count) AS count FROM ReportBlockedStat " +
+            "WHERE bucket >= :since GROUP BY domainId ORDER BY count DESC LIMIT :limit) s " +
+            "INNER JOIN ReportDomain d ON d._id = s.domainId ORDER BY s.count DESC")
+    List<ReportBlockedCount> getTopDomainsSince(long since, int limit);
+
+    @Query("SELECT p.packageName AS name, s.count FROM " +
+            "(SELECT packageId, SUM(count) AS count FROM ReportBlockedStat " +
+            "WHERE bucket >= :since GROUP BY packageId ORDER BY count DESC LIMIT :limit) s " +
+            "INNER JOIN ReportPackage p ON p._id = s.packageId ORDER BY s.count DESC")
+    List<ReportBlockedCount> getTopPackagesSince(long since, int limit);
+
+    @Query("SELECT (bucket + :offset) / 86400000 * 86400000 - :offset AS bucket, SUM(count) AS count " +
+            "FROM ReportBlockedStat WHERE bucket >= :since GROUP BY 1 ORDER BY 1")
+    List<ReportBlockedTrend> getDailyTrendSince(long since, long offset);
+
+}
@@ -7,7 +7,11 @@ import android.arch.persistence.room.Query;
 import android.arch.persistence.room.TypeConverters;
 
 import com.fusionjack.adhell3.db.DateConverter;
+import com.fusionjack.adhell3.db.entity.ReportBlockedEvent;
 import com.fusionjack.adhell3.db.entity.ReportBlockedUrl;
+import com.fusionjack.adhell3.db.entity.ReportCursor;
+import com.fusionjack.adhell3.db.entity.ReportDomain;
+import com.fusionjack.adhell3.db.entity.ReportPackage;
 
 import java.util.List;
 
@@ -15,19 +19,73 @@ import java.util.List;
 @TypeConverters(DateConverter.class)
 public interface ReportBlockedUrlDao {
 
-    @Insert(onConflict = OnConflictStrategy.REPLACE)
-    void insert(ReportBlockedUrl reportBlockedUrl);
+    @Insert
+    void insertAll(List<ReportBlockedEvent> reportBlockedEvents);
+
+    @Insert
+    long insertDomain(ReportDomain reportDomain);
 
     @Insert
-    void insertAll(List<ReportBlockedUrl> reportBlockedUrls);
+    long insertPackage(ReportPackage reportPackage);
 
-    @Query("SELECT * FROM ReportBlockedUrl WHERE blockDate BETWEEN :startDate AND :endDate ORDER BY _id DESC")
+    @Query("SELECT _id FROM ReportDomain WHERE url = :url")
+    Long getDomainId(String url);
+
+    @Query("SELECT _id FROM ReportPackage WHERE packageName = :packageName")
+    Long getPackageId(String packageName);
+
+    @Query("SELECT e._id, d.url, p.packageName, e.blockDate FROM ReportBlockedEvent e " +
+            "INNER JOIN ReportDomain d ON d._id = e.domainId " +
+            "INNER JOIN ReportPackage p ON p._id = e.packageId " +
+            "WHERE e.blockDate BETWEEN :startDate AND :endDate ORDER BY e.blockDate DESC, e._id DESC")
     List<ReportBlockedUrl> getReportBlockUrlBetween(long startDate, long endDate);
 
-    @Query("DELETE FROM ReportBlockedUrl WHERE blockDate < :blockDate")
+    // The pages are ordered by (blockDate, _id), the next page starts after the last row of the previous one
+    @Query("SELECT e._id, d.url, p.packageName, e.blockDate FROM ReportBlockedEvent e " +
+            "INNER JOIN ReportDomain d ON d._id = e.domainId " +
+            "INNER JOIN ReportPackage p ON p._id = e.packageId " +
+            "WHERE e.blockDate >= :startDate " +
+            "AND e.blockDate <= :beforeDate AND (e.blockDate < :beforeDate OR e._id < :beforeId) " +
+            "ORDER BY e.blockDate DESC, e._id DESC LIMIT :limit")
+    List<ReportBlockedUrl> getPage(long startDate, long beforeDate, long beforeId, int limit);
+
+    @Query("SELECT e._id, d.url, p.packageName, e.blockDate FROM ReportBlockedEvent e " +
+            "INNER JOIN ReportDomain d ON d._id = e.domainId " +
+            "INNER JOIN ReportPackage p ON p._id = e.packageId " +
+            "WHERE e.packageId = (SELECT _id FROM ReportPackage WHERE packageName = :packageName) " +
+            "AND e.blockDate >= :startDate " +
+            "AND e.blockDate <= :beforeDate AND (e.blockDate < :beforeDate OR e._id < :beforeId) " +
+            "ORDER BY e.blockDate DESC, e._id DESC LIMIT :limit")
+    List<ReportBlockedUrl> getPageByPackage(String packageName, long startDate, long beforeDate, long beforeId, int limit);
+
+    @Query("SELECT e._id, d.url, p.packageName, e.blockDate FROM ReportBlockedEvent e " +
+            "INNER JOIN ReportDomain d ON d._id = e.domainId " +
+            "INNER JOIN ReportPackage p ON p._id = e.packageId " +
+            "WHERE e.domainId = (SELECT _id FROM ReportDomain WHERE url = :url) " +
+            "AND e.blockDate >= :startDate " +
+            "AND e.blockDate <= :beforeDate AND (e.blockDate < :beforeDate OR e._id < :beforeId) " +
+            "ORDER BY e.blockDate DESC, e._id DESC LIMIT :limit")
+    List<ReportBlockedUrl> getPageByUrl(String url, long startDate, long beforeDate, long beforeId, int limit);
+
+    @Query("SELECT COUNT(*) FROM ReportBlockedEvent WHERE blockDate >= :startDate")
+    int getCountSince(long startDate);
+
+    @Query("DELETE FROM ReportBlockedEvent WHERE blockDate < :blockDate")
     void deleteBefore(long blockDate);
 
-    @Query("SELECT * FROM ReportBlockedUrl ORDER BY blockDate DESC LIMIT 1")
-    ReportBlockedUrl getLastBlockedDomain();
+    @Query("SELECT * FROM ReportCursor WHERE _id = 0")
+    ReportCursor getCursor();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void setCursor(ReportCursor reportCursor);
+
+    // Domains and packages which are neither referenced by a blocked domain nor by a stat anymore
+    @Query("DELETE FROM ReportDomain WHERE _id NOT IN (SELECT domainId FROM ReportBlockedEvent) " +
+            "AND _id NOT IN (SELECT domainId FROM ReportBlockedStat)")
+    int deleteOrphanDomains();
+
+    @Query("DELETE FROM ReportPackage WHERE _id NOT IN (SELECT packageId FROM ReportBlockedEvent) " +
+            "AND _id NOT IN (SELECT packageId FROM ReportBlockedStat)")
+    int deleteOrphanPackages();
 
 }
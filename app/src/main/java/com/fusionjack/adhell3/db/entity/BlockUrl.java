@@ -1,24 +1,12 @@
 package com.fusionjack.adhell3.db.entity;
 
 import android.arch.persistence.room.ColumnInfo;
-import android.arch.persistence.room.Entity;
-import android.arch.persistence.room.ForeignKey;
-import android.arch.persistence.room.Index;
-import android.arch.persistence.room.PrimaryKey;
 
-
-@Entity(
-        tableName = "BlockUrl",
-        indices = {@Index("urlProviderId")},
-        foreignKeys = @ForeignKey(
-                entity = BlockUrlProvider.class,
-                parentColumns = "_id",
-                childColumns = "urlProviderId",
-                onDelete = ForeignKey.CASCADE
-        )
-)
+/**
+ * A domain of a provider, read from the Domain and ProviderDomain tables.
+ */
 public class BlockUrl {
-    @PrimaryKey(autoGenerate = true)
+    // Id of the domain
     @ColumnInfo(name = "_id")
     public long id;
 
@@ -31,6 +31,13 @@ public class BlockUrlProvider {
     @ColumnInfo(name = "lastUpdated")
     public Date lastUpdated;
 
+    // Number of urls added and removed by the last update
+    @ColumnInfo(name = "addedCount")
+    public int addedCount;
+
+    @ColumnInfo(name = "removedCount")
+    public int removedCount;
+
     @ColumnInfo(name = "deletable")
     public boolean deletable;
 
@@ -39,4 +46,15 @@ public class BlockUrlProvider {
 
     @ColumnInfo(name = "policyPackageId")
     public String policyPackageId;
+
+    // Format of the host file, detected from the first lines if null, "auto" for lists mixing several formats
+    @ColumnInfo(name = "format")
+    public String format;
+
+    // Cache validators of the last downloaded host file
+    @ColumnInfo(name = "etag")
+    public String etag;
+
+    @ColumnInfo(name = "lastModified")
+    public String lastModified;
 }
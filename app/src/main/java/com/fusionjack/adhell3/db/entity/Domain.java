@@ -0,0 +1,19 @@
+package com.fusionjack.adhell3.db.entity;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Index;
+import android.arch.persistence.room.PrimaryKey;
+
+@Entity(
+        tableName = "Domain",
+        indices = {@Index(value = "url", unique = true)}
+)
+public class Domain {
+    @PrimaryKey(autoGenerate = true)
+    @ColumnInfo(name = "_id")
+    public long id;
+
+    @ColumnInfo(name = "url")
+    public String url;
+}
@@ -0,0 +1,33 @@
+package com.fusionjack.adhell3.db.entity;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.ForeignKey;
+import android.arch.persistence.room.Index;
+
+@Entity(
+        tableName = "ProviderDomain",
+        primaryKeys = {"providerId", "domainId"},
+        indices = {@Index("domainId")},
+        foreignKeys = {
+                @ForeignKey(
+                        entity = BlockUrlProvider.class,
+                        parentColumns = "_id",
+                        childColumns = "providerId",
+                        onDelete = ForeignKey.CASCADE
+                ),
+                @ForeignKey(
+                        entity = Domain.class,
+                        parentColumns = "_id",
+                        childColumns = "domainId",
+                        onDelete = ForeignKey.CASCADE
+                )
+        }
+)
+public class ProviderDomain {
+    @ColumnInfo(name = "providerId")
+    public long providerId;
+
+    @ColumnInfo(name = "domainId")
+    public long domainId;
+}
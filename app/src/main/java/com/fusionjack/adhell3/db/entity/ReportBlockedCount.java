@@ -0,0 +1,9 @@
+package com.fusionjack.adhell3.db.entity;
+
+/**
+ * Number of blocked domains per domain or per app, name is the domain or the package name.
+ */
+public class ReportBlockedCount {
+    public String name;
+    public int count;
+}
@@ -0,0 +1,56 @@
+package com.fusionjack.adhell3.db.entity;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.ForeignKey;
+import android.arch.persistence.room.Ignore;
+import android.arch.persistence.room.Index;
+import android.arch.persistence.room.PrimaryKey;
+
+/**
+ * A blocked domain as stored, the domain and the package are kept once in ReportDomain and ReportPackage.
+ */
+@Entity(
+        tableName = "ReportBlockedEvent",
+        indices = {
+                @Index("blockDate"),
+                @Index({"packageId", "blockDate"}),
+                @Index({"domainId", "blockDate"})
+        },
+        foreignKeys = {
+                @ForeignKey(
+                        entity = ReportDomain.class,
+                        parentColumns = "_id",
+                        childColumns = "domainId"
+                ),
+                @ForeignKey(
+                        entity = ReportPackage.class,
+                        parentColumns = "_id",
+                        childColumns = "packageId"
+                )
+        }
+)
+public class ReportBlockedEvent {
+    @PrimaryKey(autoGenerate = true)
+    @ColumnInfo(name = "_id")
+    public long id;
+
+    @ColumnInfo(name = "domainId")
+    public long domainId;
+
+    @ColumnInfo(name = "packageId")
+    public long packageId;
+
+    @ColumnInfo(name = "blockDate")
+    public long blockDate;
+
+    public ReportBlockedEvent() {
+    }
+
+    @Ignore
+    public ReportBlockedEvent(long domainId, long packageId, long blockDate) {
+        this.domainId = domainId;
+        this.packageId = packageId;
+        this.blockDate = blockDate;
+    }
+}
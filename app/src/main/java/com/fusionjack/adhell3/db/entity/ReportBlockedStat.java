@@ -0,0 +1,50 @@
+package com.fusionjack.adhell3.db.entity;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Ignore;
+import android.arch.persistence.room.Index;
+
+/**
+ * Number of blocked domains of an app within an hour or a day, bucket is the start time of it.
+ * The domain and the package refer to ReportDomain and ReportPackage.
+ */
+@Entity(
+        tableName = "ReportBlockedStat",
+        primaryKeys = {"granularity", "bucket", "domainId", "packageId"},
+        indices = {@Index("bucket"), @Index("domainId"), @Index("packageId")}
+)
+public class ReportBlockedStat {
+
+    @Ignore
+    public static final int GRANULARITY_HOUR = 0;
+
+    @Ignore
+    public static final int GRANULARITY_DAY = 1;
+
+    @ColumnInfo(name = "granularity")
+    public int granularity;
+
+    @ColumnInfo(name = "bucket")
+    public long bucket;
+
+    @ColumnInfo(name = "domainId")
+    public long domainId;
+
+    @ColumnInfo(name = "packageId")
+    public long packageId;
+
+    @ColumnInfo(name = "count")
+    public int count;
+
+    public ReportBlockedStat() {
+    }
+
+    @Ignore
+    public ReportBlockedStat(int granularity, long bucket, long domainId, long packageId) {
+        this.granularity = granularity;
+        this.bucket = bucket;
+        this.domainId = domainId;
+        this.packageId = packageId;
+    }
+}
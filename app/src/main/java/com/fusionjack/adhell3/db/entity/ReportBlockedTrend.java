@@ -0,0 +1,9 @@
+package com.fusionjack.adhell3.db.entity;
+
+/**
+ * Number of blocked domains within a day, bucket is the start time of the day.
+ */
+public class ReportBlockedTrend {
+    public long bucket;
+    public int count;
+}
@@ -1,18 +1,13 @@
 package com.fusionjack.adhell3.db.entity;
 
 import android.arch.persistence.room.ColumnInfo;
-import android.arch.persistence.room.Entity;
 import android.arch.persistence.room.Ignore;
-import android.arch.persistence.room.PrimaryKey;
-import android.arch.persistence.room.TypeConverters;
 
-import com.fusionjack.adhell3.db.DateConverter;
-
-@Entity(tableName = "ReportBlockedUrl")
-@TypeConverters(DateConverter.class)
+/**
+ * A blocked domain with its domain and package name, read from ReportBlockedEvent.
+ */
 public class ReportBlockedUrl {
 
-    @PrimaryKey(autoGenerate = true)
     @ColumnInfo(name = "_id")
     public long id;
     public String url;
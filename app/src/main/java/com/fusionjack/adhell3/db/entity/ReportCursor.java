@@ -0,0 +1,37 @@
+package com.fusionjack.adhell3.db.entity;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Ignore;
+import android.arch.persistence.room.PrimaryKey;
+
+/**
+ * Position of the last stored Knox report: its time in seconds and the number of stored reports with that time.
+ * The table has a single row, which is updated in the same transaction as the reports.
+ */
+@Entity(tableName = "ReportCursor")
+public class ReportCursor {
+
+    @Ignore
+    public static final long ID = 0;
+
+    @PrimaryKey
+    @ColumnInfo(name = "_id")
+    public long id;
+
+    @ColumnInfo(name = "lastTime")
+    public long lastTime;
+
+    @ColumnInfo(name = "lastCount")
+    public int lastCount;
+
+    public ReportCursor() {
+    }
+
+    @Ignore
+    public ReportCursor(long lastTime, int lastCount) {
+        this.id = ID;
+        this.lastTime = lastTime;
+        this.lastCount = lastCount;
+    }
+}
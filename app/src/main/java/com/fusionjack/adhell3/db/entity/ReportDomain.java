@@ -0,0 +1,28 @@
+package com.fusionjack.adhell3.db.entity;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Ignore;
+import android.arch.persistence.room.Index;
+import android.arch.persistence.room.PrimaryKey;
+
+@Entity(
+        tableName = "ReportDomain",
+        indices = {@Index(value = "url", unique = true)}
+)
+public class ReportDomain {
+    @PrimaryKey(autoGenerate = true)
+    @ColumnInfo(name = "_id")
+    public long id;
+
+    @ColumnInfo(name = "url")
+    public String url;
+
+    public ReportDomain() {
+    }
+
+    @Ignore
+    public ReportDomain(String url) {
+        this.url = url;
+    }
+}
@@ -0,0 +1,28 @@
+package com.fusionjack.adhell3.db.entity;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Ignore;
+import android.arch.persistence.room.Index;
+import android.arch.persistence.room.PrimaryKey;
+
+@Entity(
+        tableName = "ReportPackage",
+        indices = {@Index(value = "packageName", unique = true)}
+)
+public class ReportPackage {
+    @PrimaryKey(autoGenerate = true)
+    @ColumnInfo(name = "_id")
+    public long id;
+
+    @ColumnInfo(name = "packageName")
+    public String packageName;
+
+    public ReportPackage() {
+    }
+
+    @Ignore
+    public ReportPackage(String packageName) {
+        this.packageName = packageName;
+    }
+}
@@ -0,0 +1,17 @@
+package com.fusionjack.adhell3.db.migration;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.room.migration.Migration;
+
+public class Migration_27_28 extends Migration {
+
+    public Migration_27_28(int startVersion, int endVersion) {
+        super(startVersion, endVersion);
+    }
+
+    @Override
+    public void migrate(SupportSQLiteDatabase database) {
+        database.execSQL("ALTER TABLE BlockUrlProviders ADD COLUMN addedCount INTEGER NOT NULL DEFAULT 0");
+        database.execSQL("ALTER TABLE BlockUrlProviders ADD COLUMN removedCount INTEGER NOT NULL DEFAULT 0");
+    }
+}
@@ -0,0 +1,37 @@
+package com.fusionjack.adhell3.db.migration;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.room.migration.Migration;
+
+public class Migration_28_29 extends Migration {
+
+    public Migration_28_29(int startVersion, int endVersion) {
+        super(startVersion, endVersion);
+    }
+
+    @Override
+    public void migrate(SupportSQLiteDatabase database) {
+        database.execSQL("CREATE TABLE Domain " +
+                "(_id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                "url TEXT)");
+        database.execSQL("CREATE UNIQUE INDEX index_Domain_url " +
+                "ON Domain (url)");
+        database.execSQL("CREATE TABLE ProviderDomain " +
+                "(providerId INTEGER NOT NULL, " +
+                "domainId INTEGER NOT NULL, " +
+                "PRIMARY KEY(providerId, domainId), " +
+                "FOREIGN KEY (providerId) REFERENCES BlockUrlProviders(_id) ON DELETE CASCADE, " +
+                "FOREIGN KEY (domainId) REFERENCES Domain(_id) ON DELETE CASCADE)");
+        database.execSQL("CREATE INDEX index_ProviderDomain_domainId " +
+                "ON ProviderDomain (domainId)");
+
+        // Every domain is stored once, providers only keep a reference to it
+        database.execSQL("INSERT OR IGNORE INTO Domain (url) " +
+                "SELECT DISTINCT url FROM BlockUrl WHERE url IS NOT NULL");
+        database.execSQL("INSERT OR IGNORE INTO ProviderDomain (providerId, domainId) " +
+                "SELECT b.urlProviderId, d._id FROM BlockUrl b INNER JOIN Domain d ON d.url = b.url");
+        database.execSQL("UPDATE BlockUrlProviders SET count = " +
+                "(SELECT COUNT(*) FROM ProviderDomain WHERE providerId = BlockUrlProviders._id)");
+        database.execSQL("DROP TABLE BlockUrl");
+    }
+}
@@ -0,0 +1,16 @@
+package com.fusionjack.adhell3.db.migration;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.room.migration.Migration;
+
+public class Migration_29_30 extends Migration {
+
+    public Migration_29_30(int startVersion, int endVersion) {
+        super(startVersion, endVersion);
+    }
+
+    @Override
+    public void migrate(SupportSQLiteDatabase database) {
+        database.execSQL("CREATE INDEX IF NOT EXISTS index_ReportBlockedUrl_blockDate ON ReportBlockedUrl (blockDate)");
+    }
+}
@@ -0,0 +1,29 @@
+package com.fusionjack.adhell3.db.migration;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.room.migration.Migration;
+
+public class Migration_30_31 extends Migration {
+
+    public Migration_30_31(int startVersion, int endVersion) {
+        super(startVersion, endVersion);
+    }
+
+    @Override
+    public void migrate(SupportSQLiteDatabase database) {
+        database.execSQL("CREATE TABLE ReportBlockedStat " +
+                "(granularity INTEGER NOT NULL, " +
+                "bucket INTEGER NOT NULL, " +
+                "url TEXT NOT NULL, " +
+                "packageName TEXT NOT NULL, " +
+                "count INTEGER NOT NULL, " +
+                "PRIMARY KEY(granularity, bucket, url, packageName))");
+        database.execSQL("CREATE INDEX index_ReportBlockedStat_bucket " +
+                "ON ReportBlockedStat (bucket)");
+
+        // Start the hourly stats with the reports of the past day
+        database.execSQL("INSERT INTO ReportBlockedStat (granularity, bucket, url, packageName, count) " +
+                "SELECT 0, blockDate / 3600000 * 3600000, COALESCE(url, ''), COALESCE(packageName, ''), COUNT(*) " +
+                "FROM ReportBlockedUrl GROUP BY 2, 3, 4");
+    }
+}
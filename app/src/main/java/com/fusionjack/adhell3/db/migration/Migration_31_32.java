@@ -0,0 +1,19 @@
+package com.fusionjack.adhell3.db.migration;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.room.migration.Migration;
+
+public class Migration_31_32 extends Migration {
+
+    public Migration_31_32(int startVersion, int endVersion) {
+        super(startVersion, endVersion);
+    }
+
+    @Override
+    public void migrate(SupportSQLiteDatabase database) {
+        database.execSQL("CREATE INDEX IF NOT EXISTS index_ReportBlockedUrl_packageName_blockDate " +
+                "ON ReportBlockedUrl (packageName, blockDate)");
+        database.execSQL("CREATE INDEX IF NOT EXISTS index_ReportBlockedUrl_url_blockDate " +
+                "ON ReportBlockedUrl (url, blockDate)");
+    }
+}
@@ -0,0 +1,70 @@
+package com.fusionjack.adhell3.db.migration;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.room.migration.Migration;
+
+public class Migration_32_33 extends Migration {
+
+    public Migration_32_33(int startVersion, int endVersion) {
+        super(startVersion, endVersion);
+    }
+
+    @Override
+    public void migrate(SupportSQLiteDatabase database) {
+        database.execSQL("CREATE TABLE ReportDomain " +
+                "(_id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                "url TEXT)");
+        database.execSQL("CREATE UNIQUE INDEX index_ReportDomain_url " +
+                "ON ReportDomain (url)");
+        database.execSQL("CREATE TABLE ReportPackage " +
+                "(_id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                "packageName TEXT)");
+        database.execSQL("CREATE UNIQUE INDEX index_ReportPackage_packageName " +
+                "ON ReportPackage (packageName)");
+
+        // Every domain and package is stored once, reports and stats only keep a reference to it
+        database.execSQL("INSERT OR IGNORE INTO ReportDomain (url) " +
+                "SELECT COALESCE(url, '') FROM ReportBlockedUrl UNION SELECT url FROM ReportBlockedStat");
+        database.execSQL("INSERT OR IGNORE INTO ReportPackage (packageName) " +
+                "SELECT COALESCE(packageName, '') FROM ReportBlockedUrl UNION SELECT packageName FROM ReportBlockedStat");
+
+        database.execSQL("CREATE TABLE ReportBlockedEvent " +
+                "(_id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                "domainId INTEGER NOT NULL, " +
+                "packageId INTEGER NOT NULL, " +
+                "blockDate INTEGER NOT NULL, " +
+                "FOREIGN KEY (domainId) REFERENCES ReportDomain(_id), " +
+                "FOREIGN KEY (packageId) REFERENCES ReportPackage(_id))");
+        database.execSQL("INSERT INTO ReportBlockedEvent (_id, domainId, packageId, blockDate) " +
+                "SELECT r._id, d._id, p._id, r.blockDate FROM ReportBlockedUrl r " +
+                "INNER JOIN ReportDomain d ON d.url = COALESCE(r.url, '') " +
+                "INNER JOIN ReportPackage p ON p.packageName = COALESCE(r.packageName, '')");
+        database.execSQL("DROP TABLE ReportBlockedUrl");
+        database.execSQL("CREATE INDEX index_ReportBlockedEvent_blockDate " +
+                "ON ReportBlockedEvent (blockDate)");
+        database.execSQL("CREATE INDEX index_ReportBlockedEvent_packageId_blockDate " +
+                "ON ReportBlockedEvent (packageId, blockDate)");
+        database.execSQL("CREATE INDEX index_ReportBlockedEvent_domainId_blockDate " +
+                "ON ReportBlockedEvent (domainId, blockDate)");
+
+        database.execSQL("CREATE TABLE ReportBlockedStat_new " +
+                "(granularity INTEGER NOT NULL, " +
+                "bucket INTEGER NOT NULL, " +
+                "domainId INTEGER NOT NULL, " +
+                "packageId INTEGER NOT NULL, " +
+                "count INTEGER NOT NULL, " +
+                "PRIMARY KEY(granularity, bucket, domainId, packageId))");
+        database.execSQL("INSERT INTO ReportBlockedStat_new (granularity, bucket, domainId, packageId, count) " +
+                "SELECT s.granularity, s.bucket, d._id, p._id, s.count FROM ReportBlockedStat s " +
+                "INNER JOIN ReportDomain d ON d.url = s.url " +
+                "INNER JOIN ReportPackage p ON p.packageName = s.packageName");
+        database.execSQL("DROP TABLE ReportBlockedStat");
+        database.execSQL("ALTER TABLE ReportBlockedStat_new RENAME TO ReportBlockedStat");
+        database.execSQL("CREATE INDEX index_ReportBlockedStat_bucket " +
+                "ON ReportBlockedStat (bucket)");
+        database.execSQL("CREATE INDEX index_ReportBlockedStat_domainId " +
+                "ON ReportBlockedStat (domainId)");
+        database.execSQL("CREATE INDEX index_ReportBlockedStat_packageId " +
+                "ON ReportBlockedStat (packageId)");
+    }
+}
@@ -0,0 +1,26 @@
+package com.fusionjack.adhell3.db.migration;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.room.migration.Migration;
+
+public class Migration_33_34 extends Migration {
+
+    public Migration_33_34(int startVersion, int endVersion) {
+        super(startVersion, endVersion);
+    }
+
+    @Override
+    public void migrate(SupportSQLiteDatabase database) {
+        database.execSQL("CREATE TABLE ReportCursor " +
+                "(_id INTEGER NOT NULL, " +
+                "lastTime INTEGER NOT NULL, " +
+                "lastCount INTEGER NOT NULL, " +
+                "PRIMARY KEY(_id))");
+
+        // The collection continues after the reports which are already stored
+        database.execSQL("INSERT INTO ReportCursor (_id, lastTime, lastCount) " +
+                "SELECT 0, blockDate / 1000, COUNT(*) FROM ReportBlockedEvent " +
+                "WHERE blockDate = (SELECT MAX(blockDate) FROM ReportBlockedEvent) " +
+                "GROUP BY blockDate");
+    }
+}
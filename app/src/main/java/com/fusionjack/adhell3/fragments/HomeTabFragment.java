@@ -19,36 +19,43 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
+import android.widget.Button;
 import android.widget.ListView;
 import android.widget.Switch;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.fusionjack.adhell3.BuildConfig;
 import com.fusionjack.adhell3.R;
 import com.fusionjack.adhell3.adapter.ReportBlockedUrlAdapter;
+import com.fusionjack.adhell3.adapter.ReportBlockedUrlPageLoader;
 import com.fusionjack.adhell3.blocker.ContentBlocker;
 import com.fusionjack.adhell3.blocker.ContentBlocker56;
 import com.fusionjack.adhell3.blocker.ContentBlocker57;
+import com.fusionjack.adhell3.blocker.FirewallGateway;
+import com.fusionjack.adhell3.blocker.RuleStateCache;
 import com.fusionjack.adhell3.db.AppDatabase;
 import com.fusionjack.adhell3.db.entity.AppInfo;
+import com.fusionjack.adhell3.db.entity.ReportBlockedCount;
+import com.fusionjack.adhell3.db.entity.ReportBlockedTrend;
 import com.fusionjack.adhell3.db.entity.ReportBlockedUrl;
 import com.fusionjack.adhell3.db.entity.WhiteUrl;
 import com.fusionjack.adhell3.dialogfragment.FirewallDialogFragment;
+import com.fusionjack.adhell3.service.ReportCollectorJobService;
 import com.fusionjack.adhell3.utils.AdhellAppIntegrity;
 import com.fusionjack.adhell3.utils.AdhellFactory;
 import com.fusionjack.adhell3.utils.AppCache;
 import com.fusionjack.adhell3.utils.BlockUrlUtils;
+import com.fusionjack.adhell3.utils.BlockedDomainCollector;
 import com.fusionjack.adhell3.utils.DeviceAdminInteractor;
-import com.sec.enterprise.firewall.DomainFilterReport;
-import com.sec.enterprise.firewall.DomainFilterRule;
-import com.sec.enterprise.firewall.Firewall;
-import com.sec.enterprise.firewall.FirewallRule;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
 public class HomeTabFragment extends Fragment {
     private static final String TAG = HomeTabFragment.class.getCanonicalName();
@@ -57,6 +64,7 @@ public class HomeTabFragment extends Fragment {
     private AppCompatActivity parentActivity;
     private TextView domainStatusTextView;
     private Switch domainSwitch;
+    private Button domainSuspendButton;
     private TextView firewallStatusTextView;
     private Switch firewallSwitch;
     private TextView infoTextView;
@@ -90,6 +98,7 @@ public class HomeTabFragment extends Fragment {
         View view = inflater.inflate(R.layout.fragment_blocker, container, false);
         domainSwitch = view.findViewById(R.id.domainRulesSwitch);
         domainStatusTextView = view.findViewById(R.id.domainStatusTextView);
+        domainSuspendButton = view.findViewById(R.id.domainSuspendButton);
         firewallSwitch = view.findViewById(R.id.firewallRulesSwitch);
         firewallStatusTextView = view.findViewById(R.id.firewallStatusTextView);
         swipeContainer = view.findViewById(R.id.swipeContainer);
@@ -109,6 +118,10 @@ public class HomeTabFragment extends Fragment {
             Log.d(TAG, "Domain switch button has been clicked");
             new SetFirewallAsyncTask(true, this, fragmentManager).execute();
         });
+        domainSuspendButton.setOnClickListener(v -> {
+            Log.d(TAG, "Domain suspend button has been clicked");
+            new SuspendDomainRulesAsyncTask(this).execute();
+        });
         firewallSwitch.setOnClickListener(v -> {
             Log.d(TAG, "Firewall switch button has been clicked");
             new SetFirewallAsyncTask(false, this, fragmentManager).execute();
@@ -140,7 +153,8 @@ public class HomeTabFragment extends Fragment {
             domainStatusTextView.setText(R.string.domain_rules_disabled);
             domainSwitch.setChecked(false);
         } else {
-            domainStatusTextView.setText(R.string.domain_rules_enabled);
+            domainStatusTextView.setText(contentBlocker.isDomainRuleSuspended() ?
+                    R.string.domain_rules_suspended : R.string.domain_rules_enabled);
             domainSwitch.setChecked(true);
         }
 
@@ -153,6 +167,15 @@ public class HomeTabFragment extends Fragment {
         }
 
         if (contentBlocker instanceof ContentBlocker56 || contentBlocker instanceof ContentBlocker57) {
+            // Suspending keeps the domain rules in Knox, the switch clears and applies them
+            if (!isDomainRuleEmpty) {
+                domainSuspendButton.setVisibility(View.VISIBLE);
+                domainSuspendButton.setText(contentBlocker.isDomainRuleSuspended() ?
+                        R.string.resume_domain_rules : R.string.suspend_domain_rules);
+            } else {
+                domainSuspendButton.setVisibility(View.GONE);
+            }
+
             if (!isDomainRuleEmpty) {
                 infoTextView.setVisibility(View.VISIBLE);
                 swipeContainer.setVisibility(View.VISIBLE);
@@ -160,6 +183,7 @@ public class HomeTabFragment extends Fragment {
                         new RefreshAsyncTask(getContext()).execute()
                 );
                 AppCache.getInstance(getContext(), null);
+                ReportCollectorJobService.schedule(getContext(), AdhellFactory.getInstance().getSharedPreferences(), false);
                 new RefreshAsyncTask(getContext()).execute();
             } else {
                 infoTextView.setVisibility(View.INVISIBLE);
@@ -167,19 +191,22 @@ public class HomeTabFragment extends Fragment {
             }
         }
 
-        new SetInfoAsyncTask(getContext()).execute();
+        new SetInfoAsyncTask(getContext(), this).execute();
     }
 
     private static class SetInfoAsyncTask extends AsyncTask<Void, Void, Void> {
         private WeakReference<Context> contextWeakReference;
+        private WeakReference<HomeTabFragment> fragmentWeakReference;
+        private boolean stateChanged;
         private int mobileSize;
         private int wifiSize;
         private int whitelistedSize;
         private int domainSize;
         private int denyFirewallSize;
 
-        SetInfoAsyncTask(Context context) {
+        SetInfoAsyncTask(Context context, HomeTabFragment fragment) {
             this.contextWeakReference = new WeakReference<>(context);
+            this.fragmentWeakReference = new WeakReference<>(fragment);
         }
 
         @Override
@@ -201,45 +228,26 @@ public class HomeTabFragment extends Fragment {
 
         @Override
         protected Void doInBackground(Void... voids) {
-            Firewall firewall = AdhellFactory.getInstance().getFirewall();
+            FirewallGateway firewall = AdhellFactory.getInstance().getFirewallGateway();
             if (firewall != null) {
                 AppDatabase appDatabase = AdhellFactory.getInstance().getAppDatabase();
-                List<String> packageNameList = new ArrayList<>();
-                packageNameList.add(Firewall.FIREWALL_ALL_PACKAGES);
-                List<DomainFilterRule> domainRules = firewall.getDomainFilterRules(packageNameList);
-                if (domainRules == null && BlockUrlUtils.isDomainLimitAboveDefault()) {
-                    domainSize = BlockUrlUtils.getTotalDomainsCount(appDatabase);
-                } else if (domainRules != null && domainRules.size() > 0) {
-                    domainSize = domainRules.get(0).getDenyDomains().size();
-                }
-
-                List<AppInfo> appInfos = appDatabase.applicationInfoDao().getWhitelistedApps();
-                for (AppInfo appInfo : appInfos) {
-                    packageNameList.clear();
-                    packageNameList.add(appInfo.packageName);
-                    domainRules = firewall.getDomainFilterRules(packageNameList);
-                    if (domainRules != null && domainRules.size() > 0) {
-                        whitelistedSize += domainRules.get(0).getAllowDomains().size();
+                RuleStateCache ruleState = ContentBlocker56.getInstance().getRuleState();
+                if (ruleState.isStale()) {
+                    List<String> whitelistedPackages = new ArrayList<>();
+                    for (AppInfo appInfo : appDatabase.applicationInfoDao().getWhitelistedApps()) {
+                        whitelistedPackages.add(appInfo.packageName);
                     }
+                    stateChanged = ruleState.validate(firewall, whitelistedPackages);
                 }
 
-                FirewallRule[] firewallRules = firewall.getRules(Firewall.FIREWALL_DENY_RULE, null);
-                if (firewallRules != null) {
-                    for (FirewallRule firewallRule : firewallRules) {
-                        Firewall.NetworkInterface networkInterfaces = firewallRule.getNetworkInterface();
-                        switch (networkInterfaces) {
-                            case ALL_NETWORKS:
-                                denyFirewallSize++;
-                                break;
-                            case MOBILE_DATA_ONLY:
-                                mobileSize++;
-                                break;
-                            case WIFI_DATA_ONLY:
-                                wifiSize++;
-                                break;
-                        }
-                    }
+                domainSize = ruleState.getBlockedDomainCount();
+                if (domainSize == 0 && ruleState.isDomainRuleApplied() && BlockUrlUtils.isDomainLimitAboveDefault()) {
+                    domainSize = BlockUrlUtils.getTotalDomainsCount(appDatabase);
                 }
+                whitelistedSize = ruleState.getWhitelistedAppCount();
+                mobileSize = ruleState.getMobileRestrictedCount();
+                wifiSize = ruleState.getWifiRestrictedCount();
+                denyFirewallSize = ruleState.getDenyRuleCount();
             }
             return null;
         }
@@ -259,6 +267,38 @@ public class HomeTabFragment extends Fragment {
                     firewallInfoTextView.setText(String.format(firewallInfo, mobileSize, wifiSize, denyFirewallSize));
                 }
             }
+
+            // Knox had other rules than the cached state, show the corrected state
+            HomeTabFragment fragment = fragmentWeakReference.get();
+            if (stateChanged && fragment != null && fragment.isAdded()) {
+                fragment.updateUserInterface();
+            }
+        }
+    }
+
+    private static class SuspendDomainRulesAsyncTask extends AsyncTask<Void, Void, Void> {
+        private HomeTabFragment parentFragment;
+        private ContentBlocker contentBlocker;
+
+        SuspendDomainRulesAsyncTask(HomeTabFragment parentFragment) {
+            this.parentFragment = parentFragment;
+            this.contentBlocker = DeviceAdminInteractor.getInstance().getContentBlocker();
+        }
+
+        @Override
+        protected Void doInBackground(Void... args) {
+            contentBlocker.setHandler(null);
+            if (contentBlocker.isDomainRuleSuspended()) {
+                contentBlocker.resumeDomainRules();
+            } else {
+                contentBlocker.suspendDomainRules();
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void aVoid) {
+            parentFragment.updateUserInterface();
         }
     }
 
@@ -270,6 +310,7 @@ public class HomeTabFragment extends Fragment {
         private Handler handler;
         private boolean isDomain;
         private boolean isDomainRuleEmpty;
+        private boolean isDomainRuleInterrupted;
         private boolean isFirewallRuleEmpty;
 
         SetFirewallAsyncTask(boolean isDomain, HomeTabFragment parentFragment, FragmentManager fragmentManager) {
@@ -278,6 +319,7 @@ public class HomeTabFragment extends Fragment {
             this.fragmentManager = fragmentManager;
             this.contentBlocker = DeviceAdminInteractor.getInstance().getContentBlocker();
             this.isDomainRuleEmpty = contentBlocker.isDomainRuleEmpty();
+            this.isDomainRuleInterrupted = contentBlocker.isDomainRuleInterrupted();
             this.isFirewallRuleEmpty = contentBlocker.isFirewallRuleEmpty();
 
             this.handler = new Handler(Looper.getMainLooper()) {
@@ -291,8 +333,12 @@ public class HomeTabFragment extends Fragment {
         @Override
         protected void onPreExecute() {
             if (isDomain) {
-                fragment = FirewallDialogFragment.newInstance(
-                        isDomainRuleEmpty ? "Enabling Domain Rules" : "Disabling Domain Rules");
+                if (isDomainRuleInterrupted) {
+                    fragment = FirewallDialogFragment.newInstance("Resuming Domain Rules");
+                } else {
+                    fragment = FirewallDialogFragment.newInstance(
+                            isDomainRuleEmpty ? "Enabling Domain Rules" : "Disabling Domain Rules");
+                }
             } else {
                 fragment = FirewallDialogFragment.newInstance(
                         isFirewallRuleEmpty ? "Enabling Firewall Rules" : "Disabling Firewall Rules");
@@ -305,7 +351,7 @@ public class HomeTabFragment extends Fragment {
         protected Void doInBackground(Void... args) {
             contentBlocker.setHandler(handler);
             if (isDomain) {
-                if (isDomainRuleEmpty) {
+                if (isDomainRuleEmpty || isDomainRuleInterrupted) {
                     contentBlocker.enableDomainRules();
                 } else {
                     contentBlocker.disableDomainRules();
@@ -327,54 +373,58 @@ public class HomeTabFragment extends Fragment {
         }
     }
 
-    private static class RefreshAsyncTask extends AsyncTask<Void, Void, List<ReportBlockedUrl>> {
+    private static class RefreshAsyncTask extends AsyncTask<Void, Void, Integer> {
+        private static final int TREND_DAYS = 7;
         private WeakReference<Context> contextReference;
-        private Firewall firewall;
+        private FirewallGateway firewall;
+        private long startDate;
+        private int lastWeekCount;
+        private ReportBlockedCount lastWeekTopDomain;
+        private ReportBlockedCount lastWeekTopPackage;
+        private int[] lastWeekTrend;
 
         RefreshAsyncTask(Context context) {
             this.contextReference = new WeakReference<>(context);
-            this.firewall = AdhellFactory.getInstance().getFirewall();
+            this.firewall = AdhellFactory.getInstance().getFirewallGateway();
         }
 
         @Override
-        protected List<ReportBlockedUrl> doInBackground(Void... voids) {
-            List<ReportBlockedUrl> reportBlockedUrls = new ArrayList<>();
-            List<DomainFilterReport> reports = firewall.getDomainFilterReport(null);
-            if (reports == null) {
-                return reportBlockedUrls;
-            }
-
-            long yesterday = yesterday();
+        protected Integer doInBackground(Void... voids) {
             AppDatabase appDatabase = AdhellFactory.getInstance().getAppDatabase();
-            appDatabase.reportBlockedUrlDao().deleteBefore(yesterday);
-
-            ReportBlockedUrl lastBlockedUrl = appDatabase.reportBlockedUrlDao().getLastBlockedDomain();
-            long lastBlockedTimestamp = 0;
-            if (lastBlockedUrl != null) {
-                lastBlockedTimestamp = lastBlockedUrl.blockDate / 1000;
+            // The reports are collected in the background where it is supported
+            if (!ReportCollectorJobService.isSupported()) {
+                BlockedDomainCollector.collect(firewall, appDatabase);
             }
 
-            for (DomainFilterReport b : reports) {
-                if (b.getTimeStamp() > lastBlockedTimestamp) {
-                    ReportBlockedUrl reportBlockedUrl =
-                            new ReportBlockedUrl(b.getDomainUrl(), b.getPackageName(), b.getTimeStamp() * 1000);
-                    reportBlockedUrls.add(reportBlockedUrl);
-                }
-            }
-            appDatabase.reportBlockedUrlDao().insertAll(reportBlockedUrls);
+            long lastWeek = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(7);
+            lastWeekCount = appDatabase.reportBlockedStatDao().getTotalSince(lastWeek);
+            List<ReportBlockedCount> topDomains = appDatabase.reportBlockedStatDao().getTopDomainsSince(lastWeek, 1);
+            lastWeekTopDomain = topDomains.isEmpty() ? null : topDomains.get(0);
+            List<ReportBlockedCount> topPackages = appDatabase.reportBlockedStatDao().getTopPackagesSince(lastWeek, 1);
+            lastWeekTopPackage = topPackages.isEmpty() ? null : topPackages.get(0);
+            lastWeekTrend = getDailyTrend(appDatabase);
 
-            return appDatabase.reportBlockedUrlDao().getReportBlockUrlBetween(yesterday(), System.currentTimeMillis());
+            startDate = yesterday();
+            return appDatabase.reportBlockedUrlDao().getCountSince(startDate);
         }
 
         @Override
-        protected void onPostExecute(List<ReportBlockedUrl> reportBlockedUrls) {
+        protected void onPostExecute(Integer lastDayCount) {
             Context context = contextReference.get();
             if (context != null) {
                 ListView listView = ((Activity) context).findViewById(R.id.blockedDomainsListView);
                 if (listView != null) {
-                    ReportBlockedUrlAdapter adapter = new ReportBlockedUrlAdapter(context, reportBlockedUrls);
+                    ReportBlockedUrlAdapter adapter = new ReportBlockedUrlAdapter(context, new ArrayList<>());
+                    ReportBlockedUrlPageLoader pageLoader = new ReportBlockedUrlPageLoader(adapter,
+                            AdhellFactory.getInstance().getAppDatabase().reportBlockedUrlDao(), startDate);
                     listView.setAdapter(adapter);
+                    listView.setOnScrollListener(pageLoader);
+                    pageLoader.loadNextPage();
                     listView.setOnItemClickListener((AdapterView<?> adView, View view2, int position, long id) -> {
+                        ReportBlockedUrl reportBlockedUrl = adapter.getItem(position);
+                        if (reportBlockedUrl == null) {
+                            return;
+                        }
                         View dialogView = LayoutInflater.from(context).inflate(R.layout.dialog_question, listView, false);
                         TextView titlTextView = dialogView.findViewById(R.id.titleTextView);
                         titlTextView.setText(R.string.dialog_whitelist_domain_title);
@@ -386,19 +436,63 @@ public class HomeTabFragment extends Fragment {
                                 AsyncTask.execute(() -> {
                                     AppDatabase appDatabase = AdhellFactory.getInstance().getAppDatabase();
                                     WhiteUrl whiteUrl = new WhiteUrl();
-                                    whiteUrl.url = reportBlockedUrls.get(position).url;
+                                    whiteUrl.url = reportBlockedUrl.url;
                                     whiteUrl.insertedAt = new Date();
                                     appDatabase.whiteUrlDao().insert(whiteUrl);
                                 })
                             )
                             .setNegativeButton(android.R.string.no, null).show();
                     });
+                    listView.setOnItemLongClickListener((AdapterView<?> adView, View view2, int position, long id) -> {
+                        ReportBlockedUrl reportBlockedUrl = adapter.getItem(position);
+                        if (reportBlockedUrl == null) {
+                            return false;
+                        }
+                        // A filtered list goes back to all domains, otherwise it is filtered by the app or the domain
+                        if (pageLoader.getPackageFilter() != null || pageLoader.getUrlFilter() != null) {
+                            pageLoader.setPackageFilter(null);
+                            Toast.makeText(context, R.string.blocked_domains_of_all, Toast.LENGTH_SHORT).show();
+                            return true;
+                        }
+                        String[] filters = {
+                                context.getString(R.string.blocked_domains_filter, reportBlockedUrl.packageName),
+                                context.getString(R.string.blocked_domains_filter, reportBlockedUrl.url)
+                        };
+                        new AlertDialog.Builder(context)
+                                .setItems(filters, (dialog, which) -> {
+                                    if (which == 0) {
+                                        pageLoader.setPackageFilter(reportBlockedUrl.packageName);
+                                        Toast.makeText(context, context.getString(R.string.blocked_domains_of_app,
+                                                reportBlockedUrl.packageName), Toast.LENGTH_SHORT).show();
+                                    } else {
+                                        pageLoader.setUrlFilter(reportBlockedUrl.url);
+                                        Toast.makeText(context, context.getString(R.string.blocked_domains_of_domain,
+                                                reportBlockedUrl.url), Toast.LENGTH_SHORT).show();
+                                    }
+                                })
+                                .show();
+                        return true;
+                    });
                 }
 
                 TextView infoTextView = ((Activity) context).findViewById(R.id.infoTextView);
                 if (infoTextView != null) {
-                    infoTextView.setText(String.format("%s%s",
-                            context.getString(R.string.last_day_blocked), String.valueOf(reportBlockedUrls.size())));
+                    String info = String.format("%s%s",
+                            context.getString(R.string.last_day_blocked), String.valueOf(lastDayCount));
+                    if (lastWeekTopDomain != null) {
+                        info += context.getString(R.string.last_week_blocked,
+                                lastWeekCount, lastWeekTopDomain.name, lastWeekTopDomain.count);
+                        if (lastWeekTopPackage != null) {
+                            info += context.getString(R.string.last_week_top_app,
+                                    lastWeekTopPackage.name, lastWeekTopPackage.count);
+                        }
+                        StringBuilder trend = new StringBuilder();
+                        for (int count : lastWeekTrend) {
+                            trend.append(trend.length() == 0 ? "" : ", ").append(count);
+                        }
+                        info += context.getString(R.string.last_week_trend, trend.toString());
+                    }
+                    infoTextView.setText(info);
                 }
 
                 SwipeRefreshLayout swipeContainer = ((Activity) context).findViewById(R.id.swipeContainer);
@@ -408,6 +502,30 @@ public class HomeTabFragment extends Fragment {
             }
         }
 
+        /**
+         * @return the number of blocked domains of each of the past TREND_DAYS days, today is the last one
+         */
+        private int[] getDailyTrend(AppDatabase appDatabase) {
+            Calendar cal = Calendar.getInstance();
+            cal.set(Calendar.HOUR_OF_DAY, 0);
+            cal.set(Calendar.MINUTE, 0);
+            cal.set(Calendar.SECOND, 0);
+            cal.set(Calendar.MILLISECOND, 0);
+            cal.add(Calendar.DATE, 1 - TREND_DAYS);
+            long since = cal.getTimeInMillis();
+            long offset = TimeZone.getDefault().getOffset(since);
+
+            // Days without blocked domains have no row
+            int[] trend = new int[TREND_DAYS];
+            for (ReportBlockedTrend day : appDatabase.reportBlockedStatDao().getDailyTrendSince(since, offset)) {
+                int index = Math.round((float) (day.bucket - since) / TimeUnit.DAYS.toMillis(1));
+                if (index >= 0 && index < TREND_DAYS) {
+                    trend[index] += day.count;
+                }
+            }
+            return trend;
+        }
+
         private long yesterday() {
             final Calendar cal = Calendar.getInstance();
             cal.add(Calendar.DATE, -1);
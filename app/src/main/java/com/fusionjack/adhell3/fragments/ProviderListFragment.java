@@ -17,17 +17,25 @@ import android.webkit.URLUtil;
 import android.widget.EditText;
 import android.widget.ListAdapter;
 import android.widget.ListView;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.fusionjack.adhell3.R;
 import com.fusionjack.adhell3.adapter.BlockUrlProviderAdapter;
+import com.fusionjack.adhell3.blocker.ContentBlocker;
 import com.fusionjack.adhell3.db.AppDatabase;
-import com.fusionjack.adhell3.db.entity.BlockUrl;
 import com.fusionjack.adhell3.db.entity.BlockUrlProvider;
+import com.fusionjack.adhell3.parser.AdblockFormatParser;
+import com.fusionjack.adhell3.parser.AutoFormatParser;
+import com.fusionjack.adhell3.parser.DnsmasqFormatParser;
+import com.fusionjack.adhell3.parser.HostsFormatParser;
+import com.fusionjack.adhell3.parser.PlainFormatParser;
+import com.fusionjack.adhell3.parser.WildcardFormatParser;
 import com.fusionjack.adhell3.utils.AdhellAppIntegrity;
 import com.fusionjack.adhell3.utils.AdhellFactory;
 import com.fusionjack.adhell3.utils.BlockUrlUtils;
+import com.fusionjack.adhell3.utils.DeviceAdminInteractor;
 import com.fusionjack.adhell3.viewmodel.BlockUrlProvidersViewModel;
 import com.getbase.floatingactionbutton.FloatingActionButton;
 import com.getbase.floatingactionbutton.FloatingActionsMenu;
@@ -39,6 +47,17 @@ import java.util.List;
 import static com.fusionjack.adhell3.fragments.DomainTabPageFragment.PROVIDER_CONTENT_PAGE;
 
 public class ProviderListFragment extends Fragment {
+    // In the order of dialog_add_provider_formats, null detects the format
+    private static final String[] PROVIDER_FORMATS = {
+            null,
+            AutoFormatParser.FORMAT,
+            HostsFormatParser.FORMAT,
+            AdblockFormatParser.FORMAT,
+            DnsmasqFormatParser.FORMAT,
+            PlainFormatParser.FORMAT,
+            WildcardFormatParser.FORMAT
+    };
+
     private Context context;
     private FragmentActivity activity;
 
@@ -102,8 +121,10 @@ public class ProviderListFragment extends Fragment {
                     .setPositiveButton(android.R.string.yes, (dialog, whichButton) -> {
                         EditText providerEditText = dialogView.findViewById(R.id.providerEditText);
                         String provider = providerEditText.getText().toString();
+                        Spinner formatSpinner = dialogView.findViewById(R.id.providerFormatSpinner);
+                        String format = PROVIDER_FORMATS[formatSpinner.getSelectedItemPosition()];
                         if (URLUtil.isValidUrl(provider)) {
-                            new AddProviderAsyncTask(provider, context).execute();
+                            new AddProviderAsyncTask(provider, format, context).execute();
                         } else {
                             Toast.makeText(getContext(), "Url is invalid", Toast.LENGTH_LONG).show();
                         }
@@ -116,11 +137,13 @@ public class ProviderListFragment extends Fragment {
 
     private static class AddProviderAsyncTask extends AsyncTask<Void, Void, Void> {
         private String provider;
+        private String format;
         private WeakReference<Context> contextWeakReference;
         private BlockUrlProvider blockUrlProvider;
 
-        AddProviderAsyncTask(String provider, Context context) {
+        AddProviderAsyncTask(String provider, String format, Context context) {
             this.provider = provider;
+            this.format = format;
             this.contextWeakReference = new WeakReference<>(context);
         }
 
@@ -134,6 +157,7 @@ public class ProviderListFragment extends Fragment {
             blockUrlProvider.deletable = true;
             blockUrlProvider.lastUpdated = new Date();
             blockUrlProvider.selected = false;
+            blockUrlProvider.format = format;
             blockUrlProvider.id = appDatabase.blockUrlProviderDao().insertAll(blockUrlProvider)[0];
             blockUrlProvider.policyPackageId = AdhellAppIntegrity.DEFAULT_POLICY_ID;
             appDatabase.blockUrlProviderDao().updateBlockUrlProviders(blockUrlProvider);
@@ -172,13 +196,13 @@ public class ProviderListFragment extends Fragment {
         protected Void doInBackground(Void... voids) {
             AppDatabase appDatabase = AdhellFactory.getInstance().getAppDatabase();
             try {
-                List<BlockUrl> blockUrls = BlockUrlUtils.loadBlockUrls(provider);
-                provider.count = blockUrls.size();
+                provider.count = BlockUrlUtils.loadBlockUrls(provider, appDatabase);
                 provider.lastUpdated = new Date();
                 appDatabase.blockUrlProviderDao().updateBlockUrlProviders(provider);
-                appDatabase.blockUrlDao().insertAll(blockUrls);
             } catch (Exception e) {
                 appDatabase.blockUrlProviderDao().delete(provider);
+                appDatabase.blockUrlDao().deleteOrphanDomains();
+                BlockUrlUtils.deleteRawCache(provider);
                 e.printStackTrace();
             }
             return null;
@@ -209,6 +233,12 @@ public class ProviderListFragment extends Fragment {
         @Override
         protected Void doInBackground(Void... voids) {
             AdhellFactory.getInstance().updateAllProviders();
+
+            // Send only the changed domains to Knox, if the domain rules are enabled
+            ContentBlocker contentBlocker = DeviceAdminInteractor.getInstance().getContentBlocker();
+            if (contentBlocker != null) {
+                contentBlocker.updateDomainRules();
+            }
             return null;
         }
 
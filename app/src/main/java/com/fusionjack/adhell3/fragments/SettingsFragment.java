@@ -7,15 +7,21 @@ import android.app.enterprise.ApplicationPolicy;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
 import android.support.v4.app.Fragment;
 import android.support.v7.app.AlertDialog;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.TextView;
 
 import com.fusionjack.adhell3.BuildConfig;
@@ -26,11 +32,15 @@ import com.fusionjack.adhell3.db.DatabaseFactory;
 import com.fusionjack.adhell3.db.entity.DisabledPackage;
 import com.fusionjack.adhell3.model.AppFlag;
 import com.fusionjack.adhell3.receiver.CustomDeviceAdminReceiver;
+import com.fusionjack.adhell3.service.ReportCollectorJobService;
 import com.fusionjack.adhell3.tasks.LoadAppAsyncTask;
 import com.fusionjack.adhell3.utils.AdhellFactory;
+import com.fusionjack.adhell3.utils.BlockedDomainCollector;
 import com.fusionjack.adhell3.utils.DeviceAdminInteractor;
 
 import java.lang.ref.WeakReference;
+import java.text.DateFormat;
+import java.util.Date;
 import java.util.List;
 
 public class SettingsFragment extends Fragment {
@@ -103,6 +113,32 @@ public class SettingsFragment extends Fragment {
                     .setNegativeButton(android.R.string.no, null).show();
         });
 
+        SharedPreferences sharedPreferences = AdhellFactory.getInstance().getSharedPreferences();
+        CheckBox collectWhileChargingCheckBox = view.findViewById(R.id.collectWhileChargingCheckBox);
+        CheckBox collectWhileIdleCheckBox = view.findViewById(R.id.collectWhileIdleCheckBox);
+        if (ReportCollectorJobService.isSupported()) {
+            collectWhileChargingCheckBox.setChecked(ReportCollectorJobService.isChargingRequired(sharedPreferences));
+            collectWhileIdleCheckBox.setChecked(ReportCollectorJobService.isIdleRequired(sharedPreferences));
+            CompoundButton.OnCheckedChangeListener listener = (buttonView, isChecked) ->
+                    ReportCollectorJobService.setConstraints(context, sharedPreferences,
+                            collectWhileChargingCheckBox.isChecked(), collectWhileIdleCheckBox.isChecked());
+            collectWhileChargingCheckBox.setOnCheckedChangeListener(listener);
+            collectWhileIdleCheckBox.setOnCheckedChangeListener(listener);
+        } else {
+            collectWhileChargingCheckBox.setVisibility(View.GONE);
+            collectWhileIdleCheckBox.setVisibility(View.GONE);
+        }
+
+        TextView reportCollectorTextView = view.findViewById(R.id.reportCollectorTextView);
+        long lastRunTime = BlockedDomainCollector.getLastRunTime();
+        if (lastRunTime == 0) {
+            reportCollectorTextView.setText(R.string.report_collector_never_run);
+        } else {
+            reportCollectorTextView.setText(getString(R.string.report_collector_last_run,
+                    DateFormat.getDateTimeInstance().format(new Date(lastRunTime)),
+                    BlockedDomainCollector.getLastRunCount(), BlockedDomainCollector.getLastRunDuration()));
+        }
+
         return view;
     }
 
@@ -156,6 +192,7 @@ public class SettingsFragment extends Fragment {
         private AppDatabase appDatabase;
         private ApplicationPolicy appPolicy;
         private WeakReference<Activity> activityWeakReference;
+        private Handler handler;
 
         RestoreDatabaseAsyncTask(Activity activity) {
             this.activityWeakReference = new WeakReference<>(activity);
@@ -163,6 +200,12 @@ public class SettingsFragment extends Fragment {
             this.dialog = new ProgressDialog(activity);
             this.appDatabase = AdhellFactory.getInstance().getAppDatabase();
             this.appPolicy = AdhellFactory.getInstance().getAppPolicy();
+            this.handler = new Handler(Looper.getMainLooper()) {
+                @Override
+                public void handleMessage(Message msg) {
+                    dialog.setMessage(msg.obj.toString());
+                }
+            };
         }
 
         @Override
@@ -177,7 +220,7 @@ public class SettingsFragment extends Fragment {
                 DatabaseFactory.getInstance().restoreDatabase();
 
                 publishProgress("Updating all providers...");
-                AdhellFactory.getInstance().updateAllProviders();
+                AdhellFactory.getInstance().updateAllProviders(handler);
 
                 publishProgress("Disabling apps...");
                 List<DisabledPackage> disabledPackages = appDatabase.disabledPackageDao().getAll();
@@ -0,0 +1,20 @@
+package com.fusionjack.adhell3.parser;
+
+import com.fusionjack.adhell3.utils.BlockUrlPatternsMatch;
+
+/**
+ * Filter file format: ||something.com^ or ||something.com^$third-party
+ */
+public class AdblockFormatParser implements ListFormatParser {
+    public static final String FORMAT = "adblock";
+
+    @Override
+    public String getFormat() {
+        return FORMAT;
+    }
+
+    @Override
+    public String parseLine(String line) {
+        return BlockUrlPatternsMatch.getFilterDomain(line);
+    }
+}
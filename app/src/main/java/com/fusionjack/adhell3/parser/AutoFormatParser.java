@@ -0,0 +1,31 @@
+package com.fusionjack.adhell3.parser;
+
+/**
+ * Lists mixing several formats: every line is tried with each format until one accepts it.
+ * Only used when selected for a provider, as it costs up to one parse per format and line.
+ */
+public class AutoFormatParser implements ListFormatParser {
+    public static final String FORMAT = "auto";
+
+    private final ListFormatParser[] parsers;
+
+    AutoFormatParser(ListFormatParser[] parsers) {
+        this.parsers = parsers;
+    }
+
+    @Override
+    public String getFormat() {
+        return FORMAT;
+    }
+
+    @Override
+    public String parseLine(String line) {
+        for (ListFormatParser parser : parsers) {
+            String domain = parser.parseLine(line);
+            if (domain != null) {
+                return domain;
+            }
+        }
+        return null;
+    }
+}
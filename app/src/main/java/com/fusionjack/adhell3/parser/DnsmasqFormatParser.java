@@ -0,0 +1,42 @@
+package com.fusionjack.adhell3.parser;
+
+import com.fusionjack.adhell3.utils.BlockUrlPatternsMatch;
+
+/**
+ * Dnsmasq format: address=/something.com/0.0.0.0 or server=/something.com/
+ */
+public class DnsmasqFormatParser implements ListFormatParser {
+    public static final String FORMAT = "dnsmasq";
+
+    private static final String ADDRESS_PREFIX = "address=/";
+    private static final String SERVER_PREFIX = "server=/";
+
+    @Override
+    public String getFormat() {
+        return FORMAT;
+    }
+
+    @Override
+    public String parseLine(String line) {
+        int start;
+        if (line.startsWith(ADDRESS_PREFIX)) {
+            start = ADDRESS_PREFIX.length();
+        } else if (line.startsWith(SERVER_PREFIX)) {
+            start = SERVER_PREFIX.length();
+        } else {
+            return null;
+        }
+
+        int end = line.indexOf('/', start);
+        if (end == -1) {
+            return null;
+        }
+        // A leading dot is allowed by dnsmasq and matches the same domains
+        if (start < end && line.charAt(start) == '.') {
+            start++;
+        }
+
+        String domain = line.substring(start, end);
+        return BlockUrlPatternsMatch.isDomainValid(domain) ? domain : null;
+    }
+}
@@ -0,0 +1,51 @@
+package com.fusionjack.adhell3.parser;
+
+import com.fusionjack.adhell3.utils.BlockUrlPatternsMatch;
+
+/**
+ * Hosts file format: 0.0.0.0 something.com
+ */
+public class HostsFormatParser implements ListFormatParser {
+    public static final String FORMAT = "hosts";
+
+    @Override
+    public String getFormat() {
+        return FORMAT;
+    }
+
+    @Override
+    public String parseLine(String line) {
+        int end = ListFormatReader.stripComment(line);
+
+        // Skip the address
+        int i = 0;
+        while (i < end && !Character.isWhitespace(line.charAt(i))) {
+            if (!isAddressChar(line.charAt(i))) {
+                return null;
+            }
+            i++;
+        }
+        if (i == 0) {
+            return null;
+        }
+        while (i < end && Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+
+        // Only the first host name is taken
+        int start = i;
+        while (i < end && !Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        if (start == i) {
+            return null;
+        }
+
+        String domain = ListFormatReader.stripWwwPrefix(line.substring(start, i));
+        return BlockUrlPatternsMatch.isDomainValid(domain) ? domain : null;
+    }
+
+    private static boolean isAddressChar(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || c == '.' || c == ':';
+    }
+}
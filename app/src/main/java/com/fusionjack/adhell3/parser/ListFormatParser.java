@@ -0,0 +1,11 @@
+package com.fusionjack.adhell3.parser;
+
+public interface ListFormatParser {
+    String getFormat();
+
+    /**
+     * @param line a trimmed, lower-cased and non-comment line of a host file
+     * @return the domain or wildcard to block, or null if the line is not an entry of this format
+     */
+    String parseLine(String line);
+}
@@ -0,0 +1,180 @@
+package com.fusionjack.adhell3.parser;
+
+import android.support.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Reads the domains of a host file line by line.
+ * The format is either given or detected from the first non-comment lines of the file,
+ * after that every line goes through the parser of that format only. Files mixing several formats
+ * are read with the "auto" format, which tries every parser.
+ */
+public class ListFormatReader implements Closeable {
+    public static final int DETECTION_LINE_COUNT = 100;
+
+    // Ordered by preference when several formats match the same number of lines
+    private static final ListFormatParser[] PARSERS = {
+            new AdblockFormatParser(),
+            new DnsmasqFormatParser(),
+            new HostsFormatParser(),
+            new PlainFormatParser(),
+            new WildcardFormatParser()
+    };
+    private static final ListFormatParser AUTO_PARSER = new AutoFormatParser(PARSERS);
+
+    private final BufferedReader reader;
+    private ListFormatParser parser;
+    private Iterator<String> detectionLines;
+    private int lineCount;
+
+    public ListFormatReader(BufferedReader reader, @Nullable String format) {
+        this.reader = reader;
+        this.parser = getParser(format);
+    }
+
+    @Nullable
+    public static ListFormatParser getParser(@Nullable String format) {
+        if (format == null || format.isEmpty()) {
+            return null;
+        }
+        if (AUTO_PARSER.getFormat().equals(format)) {
+            return AUTO_PARSER;
+        }
+        for (ListFormatParser parser : PARSERS) {
+            if (parser.getFormat().equals(format)) {
+                return parser;
+            }
+        }
+        return null;
+    }
+
+    public static ListFormatParser detect(List<String> lines) {
+        ListFormatParser detectedParser = PARSERS[0];
+        int maxCount = 0;
+        for (ListFormatParser parser : PARSERS) {
+            int count = 0;
+            for (String line : lines) {
+                if (parser.parseLine(line) != null) {
+                    count++;
+                }
+            }
+            if (count > maxCount) {
+                maxCount = count;
+                detectedParser = parser;
+            }
+        }
+        return detectedParser;
+    }
+
+    /**
+     * @return the next valid domain or wildcard, or null at the end of the file
+     */
+    @Nullable
+    public String readDomain() throws IOException {
+        if (parser == null) {
+            detectParser();
+        }
+
+        String line;
+        while ((line = nextLine()) != null) {
+            String domain = parser.parseLine(line);
+            if (domain != null) {
+                return domain;
+            }
+        }
+        return null;
+    }
+
+    public String getFormat() {
+        return parser == null ? null : parser.getFormat();
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void detectParser() throws IOException {
+        List<String> lines = new ArrayList<>(DETECTION_LINE_COUNT);
+        String line;
+        while (lines.size() < DETECTION_LINE_COUNT && (line = readLine()) != null) {
+            lines.add(line);
+        }
+        parser = detect(lines);
+        detectionLines = lines.iterator();
+    }
+
+    private String nextLine() throws IOException {
+        if (detectionLines != null) {
+            if (detectionLines.hasNext()) {
+                return detectionLines.next();
+            }
+            detectionLines = null;
+        }
+        return readLine();
+    }
+
+    private String readLine() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineCount++;
+            line = cleanLine(line);
+            if (line != null) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the trimmed line in lower case, or null if the line is empty or a comment
+     */
+    @Nullable
+    public static String cleanLine(String line) {
+        line = line.trim();
+        return isComment(line) ? null : line.toLowerCase();
+    }
+
+    private static boolean isComment(String line) {
+        if (line.isEmpty()) {
+            return true;
+        }
+        char c = line.charAt(0);
+        return c == '#' || c == '!' || c == '[';
+    }
+
+    /**
+     * @return the index of the inline comment, or the length of the line if there is none
+     */
+    static int stripComment(String line) {
+        int index = line.indexOf('#');
+        return index == -1 ? line.length() : index;
+    }
+
+    /**
+     * Remove WWW, WWW1 etc. prefix
+     */
+    static String stripWwwPrefix(String domain) {
+        if (!domain.startsWith("www")) {
+            return domain;
+        }
+        int i = 3;
+        while (i < domain.length() && i < 6 && domain.charAt(i) >= '0' && domain.charAt(i) <= '9') {
+            i++;
+        }
+        if (i < domain.length() && domain.charAt(i) == '.') {
+            return domain.substring(i + 1);
+        }
+        return domain;
+    }
+}
@@ -0,0 +1,22 @@
+package com.fusionjack.adhell3.parser;
+
+import com.fusionjack.adhell3.utils.BlockUrlPatternsMatch;
+
+/**
+ * One domain per line: something.com
+ */
+public class PlainFormatParser implements ListFormatParser {
+    public static final String FORMAT = "plain";
+
+    @Override
+    public String getFormat() {
+        return FORMAT;
+    }
+
+    @Override
+    public String parseLine(String line) {
+        int end = ListFormatReader.stripComment(line);
+        String domain = ListFormatReader.stripWwwPrefix(end == line.length() ? line : line.substring(0, end).trim());
+        return BlockUrlPatternsMatch.isDomainValid(domain) ? domain : null;
+    }
+}
@@ -0,0 +1,27 @@
+package com.fusionjack.adhell3.parser;
+
+import com.fusionjack.adhell3.utils.BlockUrlPatternsMatch;
+
+/**
+ * Wildcards mixed with plain domains: *something.com, something*, *something*
+ */
+public class WildcardFormatParser implements ListFormatParser {
+    public static final String FORMAT = "wildcard";
+
+    private final PlainFormatParser plainFormatParser = new PlainFormatParser();
+
+    @Override
+    public String getFormat() {
+        return FORMAT;
+    }
+
+    @Override
+    public String parseLine(String line) {
+        int end = ListFormatReader.stripComment(line);
+        String wildcard = end == line.length() ? line : line.substring(0, end).trim();
+        if (wildcard.indexOf('*') == -1) {
+            return plainFormatParser.parseLine(wildcard);
+        }
+        return BlockUrlPatternsMatch.isWildcardValid(wildcard) ? wildcard : null;
+    }
+}
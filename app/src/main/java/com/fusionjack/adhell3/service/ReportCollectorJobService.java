@@ -0,0 +1,145 @@
+package com.fusionjack.adhell3.service;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.util.Log;
+
+import com.fusionjack.adhell3.blocker.ContentBlocker;
+import com.fusionjack.adhell3.blocker.FirewallGateway;
+import com.fusionjack.adhell3.utils.AdhellFactory;
+import com.fusionjack.adhell3.utils.BlockedDomainCollector;
+import com.fusionjack.adhell3.utils.DeviceAdminInteractor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the blocked domains from Knox periodically, so that the reports are stored in small portions
+ * before Knox drops them and the home screen only has to read them from the database.
+ * The job can be restricted to run only while the device is charging or idle, and is cancelled
+ * when the domain rules are disabled.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class ReportCollectorJobService extends JobService {
+    private static final String TAG = ReportCollectorJobService.class.getCanonicalName();
+    private static final int JOB_ID = 1001;
+    private static final String COLLECT_WHILE_CHARGING = "adhell_report_collector_charging";
+    private static final String COLLECT_WHILE_IDLE = "adhell_report_collector_idle";
+    private static final long COLLECT_INTERVAL = TimeUnit.MINUTES.toMillis(30);
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    public static boolean isChargingRequired(SharedPreferences sharedPreferences) {
+        return sharedPreferences.getBoolean(COLLECT_WHILE_CHARGING, false);
+    }
+
+    public static boolean isIdleRequired(SharedPreferences sharedPreferences) {
+        return sharedPreferences.getBoolean(COLLECT_WHILE_IDLE, false);
+    }
+
+    /**
+     * Store the constraints and schedule the job again with them if it is scheduled
+     */
+    public static void setConstraints(Context context, SharedPreferences sharedPreferences, boolean charging, boolean idle) {
+        sharedPreferences.edit()
+                .putBoolean(COLLECT_WHILE_CHARGING, charging)
+                .putBoolean(COLLECT_WHILE_IDLE, idle)
+                .apply();
+        if (isScheduled(context)) {
+            schedule(context, sharedPreferences, true);
+        }
+    }
+
+    public static void cancel(Context context) {
+        if (!isSupported()) {
+            return;
+        }
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler != null) {
+            jobScheduler.cancel(JOB_ID);
+            Log.d(TAG, "Report collector cancelled");
+        }
+    }
+
+    private static boolean isScheduled(Context context) {
+        if (!isSupported()) {
+            return false;
+        }
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        return jobScheduler != null && isScheduled(jobScheduler);
+    }
+
+    private static boolean isScheduled(JobScheduler jobScheduler) {
+        for (JobInfo jobInfo : jobScheduler.getAllPendingJobs()) {
+            if (jobInfo.getId() == JOB_ID) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Schedule the job if it is not scheduled yet, or replace it if reschedule is set
+     */
+    public static void schedule(Context context, SharedPreferences sharedPreferences, boolean reschedule) {
+        if (!isSupported()) {
+            return;
+        }
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler == null) {
+            return;
+        }
+        if (!reschedule && isScheduled(jobScheduler)) {
+            return;
+        }
+
+        JobInfo jobInfo = new JobInfo.Builder(JOB_ID, new ComponentName(context, ReportCollectorJobService.class))
+                .setPeriodic(COLLECT_INTERVAL)
+                .setRequiresCharging(isChargingRequired(sharedPreferences))
+                .setRequiresDeviceIdle(isIdleRequired(sharedPreferences))
+                .setPersisted(true)
+                .build();
+        int result = jobScheduler.schedule(jobInfo);
+        Log.d(TAG, "Report collector scheduled: " + (result == JobScheduler.RESULT_SUCCESS));
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        if (!DeviceAdminInteractor.getInstance().isKnoxEnabled()) {
+            return false;
+        }
+        ContentBlocker contentBlocker = DeviceAdminInteractor.getInstance().getContentBlocker();
+        if (contentBlocker == null || contentBlocker.isDomainRuleEmpty()) {
+            return false;
+        }
+        FirewallGateway firewall = AdhellFactory.getInstance().getFirewallGateway();
+        if (firewall == null || !firewall.isDomainFilterReportEnabled()) {
+            return false;
+        }
+
+        AsyncTask.execute(() -> {
+            try {
+                BlockedDomainCollector.collect(firewall, AdhellFactory.getInstance().getAppDatabase());
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to collect the blocked domains", e);
+            }
+            jobFinished(params, false);
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The stored batches are kept, the next run continues after them
+        return false;
+    }
+}
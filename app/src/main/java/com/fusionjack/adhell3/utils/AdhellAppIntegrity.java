@@ -8,7 +8,6 @@ import android.util.Log;
 import com.fusionjack.adhell3.db.AppDatabase;
 import com.fusionjack.adhell3.db.entity.AppInfo;
 import com.fusionjack.adhell3.db.entity.AppPermission;
-import com.fusionjack.adhell3.db.entity.BlockUrl;
 import com.fusionjack.adhell3.db.entity.BlockUrlProvider;
 import com.fusionjack.adhell3.db.entity.DisabledPackage;
 import com.fusionjack.adhell3.db.entity.FirewallWhitelistedPackage;
@@ -204,8 +203,12 @@ public class AdhellAppIntegrity {
         }
 
         // Remove existing default
-        if (appDatabase.blockUrlProviderDao().getDefault().size() > 0) {
+        List<BlockUrlProvider> defaultProviders = appDatabase.blockUrlProviderDao().getDefault();
+        if (defaultProviders.size() > 0) {
             appDatabase.blockUrlProviderDao().deleteDefault();
+            for (BlockUrlProvider defaultProvider : defaultProviders) {
+                BlockUrlUtils.deleteRawCache(defaultProvider);
+            }
         }
 
         // Add the default package
@@ -217,15 +220,12 @@ public class AdhellAppIntegrity {
         blockUrlProvider.policyPackageId = DEFAULT_POLICY_ID;
         long ids[] = appDatabase.blockUrlProviderDao().insertAll(blockUrlProvider);
         blockUrlProvider.id = ids[0];
-        List<BlockUrl> blockUrls;
         try {
-            blockUrls = BlockUrlUtils.loadBlockUrls(blockUrlProvider);
-            blockUrlProvider.count = blockUrls.size();
-            Log.d(TAG, "Number of urls to insert: " + blockUrlProvider.count);
+            // Save urls from providers
+            blockUrlProvider.count = BlockUrlUtils.loadBlockUrls(blockUrlProvider, appDatabase);
+            Log.d(TAG, "Number of inserted urls: " + blockUrlProvider.count);
             // Save url provider
             appDatabase.blockUrlProviderDao().updateBlockUrlProviders(blockUrlProvider);
-            // Save urls from providers
-            appDatabase.blockUrlDao().insertAll(blockUrls);
         } catch (Exception e) {
             Log.e(TAG, e.getMessage(), e);
         }
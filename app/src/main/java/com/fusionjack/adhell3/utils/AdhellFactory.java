@@ -18,10 +18,11 @@ import com.fusionjack.adhell3.R;
 import com.fusionjack.adhell3.blocker.ContentBlocker;
 import com.fusionjack.adhell3.blocker.ContentBlocker56;
 import com.fusionjack.adhell3.blocker.ContentBlocker57;
+import com.fusionjack.adhell3.blocker.FirewallGateway;
+import com.fusionjack.adhell3.blocker.KnoxFirewallGateway;
 import com.fusionjack.adhell3.db.AppDatabase;
 import com.fusionjack.adhell3.db.entity.AppInfo;
 import com.fusionjack.adhell3.db.entity.AppPermission;
-import com.fusionjack.adhell3.db.entity.BlockUrl;
 import com.fusionjack.adhell3.db.entity.BlockUrlProvider;
 import com.sec.enterprise.AppIdentity;
 import com.sec.enterprise.firewall.DomainFilterRule;
@@ -32,13 +33,17 @@ import com.sec.enterprise.firewall.FirewallRule;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
 
 import javax.inject.Inject;
 
 public final class AdhellFactory {
+    // Concurrent downloads, each of them holds its parsed list until the writer can take it
+    private static final int PROVIDER_UPDATE_THREADS = 4;
+    // Parsed provider lists handed over to the writer, waiting for or being written
+    private static final int PROVIDER_PENDING_LISTS = 2;
     private static AdhellFactory instance;
 
     @Nullable
@@ -66,6 +71,8 @@ public final class AdhellFactory {
     @Inject
     SharedPreferences sharedPreferences;
 
+    private FirewallGateway firewallGateway;
+
     private AdhellFactory() {
         App.get().getAppComponent().inject(this);
     }
@@ -92,6 +99,21 @@ public final class AdhellFactory {
         return firewall;
     }
 
+    /**
+     * @return the gateway through which all firewall calls are made, backed by Knox unless it has been replaced
+     */
+    @Nullable
+    public FirewallGateway getFirewallGateway() {
+        if (firewallGateway == null && firewall != null) {
+            firewallGateway = new KnoxFirewallGateway(firewall);
+        }
+        return firewallGateway;
+    }
+
+    public void setFirewallGateway(FirewallGateway firewallGateway) {
+        this.firewallGateway = firewallGateway;
+    }
+
     @Nullable
     public FirewallPolicy getFirewallPolicy() {
         return firewallPolicy;
@@ -126,6 +148,7 @@ public final class AdhellFactory {
     }
 
     public void addDomainFilterRules(List<DomainFilterRule> domainRules, Handler handler) throws Exception {
+        FirewallGateway firewall = getFirewallGateway();
         if (firewall == null) {
             throw new Exception("Knox Firewall is not initialized");
         }
@@ -137,10 +160,29 @@ public final class AdhellFactory {
         } catch (SecurityException ex) {
             // Missing required MDM permission
             LogUtils.getInstance().writeError("Failed to add domain filter rule to Knox Firewall", ex, handler);
+            throw ex;
+        }
+    }
+
+    public void removeDomainFilterRules(List<DomainFilterRule> domainRules, Handler handler) throws Exception {
+        FirewallGateway firewall = getFirewallGateway();
+        if (firewall == null) {
+            throw new Exception("Knox Firewall is not initialized");
+        }
+
+        try {
+            LogUtils.getInstance().writeInfo("Removing rule(s) from Knox Firewall...", handler);
+            FirewallResponse[] response = firewall.removeDomainFilterRules(domainRules);
+            handleResponse(response, handler);
+        } catch (SecurityException ex) {
+            // Missing required MDM permission
+            LogUtils.getInstance().writeError("Failed to remove domain filter rule from Knox Firewall", ex, handler);
+            throw ex;
         }
     }
 
     public void addFirewallRules(FirewallRule[] firewallRules, Handler handler) throws Exception {
+        FirewallGateway firewall = getFirewallGateway();
         if (firewall == null) {
             throw new Exception("Knox Firewall is not initialized");
         }
@@ -162,13 +204,16 @@ public final class AdhellFactory {
             throw ex;
         } else {
             LogUtils.getInstance().writeInfo("Result: " + response[0].getMessage(), handler);
-            if (FirewallResponse.Result.SUCCESS != response[0].getResult()) {
-                Exception ex = new Exception(response[0].getMessage());
-                StringWriter sw = new StringWriter();
-                PrintWriter pw = new PrintWriter(sw);
-                ex.printStackTrace(pw);
-                LogUtils.getInstance().writeError(sw.toString(), ex, handler);
-                throw ex;
+            // A batch of rules has one response per rule
+            for (FirewallResponse ruleResponse : response) {
+                if (FirewallResponse.Result.SUCCESS != ruleResponse.getResult()) {
+                    Exception ex = new Exception(ruleResponse.getMessage());
+                    StringWriter sw = new StringWriter();
+                    PrintWriter pw = new PrintWriter(sw);
+                    ex.printStackTrace(pw);
+                    LogUtils.getInstance().writeError(sw.toString(), ex, handler);
+                    throw ex;
+                }
             }
         }
     }
@@ -274,18 +319,49 @@ public final class AdhellFactory {
     }
 
     public void updateAllProviders() {
+        updateAllProviders(null);
+    }
+
+    public void updateAllProviders(Handler handler) {
         List<BlockUrlProvider> providers = appDatabase.blockUrlProviderDao().getAll2();
-        appDatabase.blockUrlDao().deleteAll();
-        for (BlockUrlProvider provider : providers) {
-            try {
-                List<BlockUrl> blockUrls = BlockUrlUtils.loadBlockUrls(provider);
-                provider.count = blockUrls.size();
-                provider.lastUpdated = new Date();
-                appDatabase.blockUrlProviderDao().updateBlockUrlProviders(provider);
-                appDatabase.blockUrlDao().insertAll(blockUrls);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+        if (providers.size() == 0) {
+            return;
+        }
+
+        // Each provider is replaced in its own transaction, so a failed provider keeps its previous urls
+        ProviderUpdater providerUpdater = new ProviderUpdater(PROVIDER_UPDATE_THREADS, PROVIDER_PENDING_LISTS,
+                BlockUrlUtils::fetchBlockUrls,
+                (provider, result) -> BlockUrlUtils.saveBlockUrls(provider, result, appDatabase),
+                new ProviderUpdater.Listener() {
+                    @Override
+                    public void onNotModified(BlockUrlProvider provider) {
+                        LogUtils.getInstance().writeInfo("Not modified: " + provider.url, handler);
+                    }
+
+                    @Override
+                    public void onSaved(BlockUrlProvider provider) {
+                        LogUtils.getInstance().writeInfo("Updated " + provider.url + ": " + provider.count + " domains (+" + provider.addedCount + " -" + provider.removedCount + ")", handler);
+                    }
+
+                    @Override
+                    public void onFailed(BlockUrlProvider provider, Exception e) {
+                        LogUtils.getInstance().writeError("Failed to update " + provider.url, e, handler);
+                    }
+                });
+        try {
+            providerUpdater.update(providers);
+
+            int orphanCount = appDatabase.blockUrlDao().deleteOrphanDomains();
+            LogUtils.getInstance().writeInfo("Removed " + orphanCount + " unused domains", handler);
+
+            // Compile the new domain lists now, so that enabling the domain rules does not have to
+            DomainSnapshot snapshot = DomainSnapshot.get(appDatabase);
+            LogUtils.getInstance().writeInfo("Domain snapshot: " + snapshot.getHash(), handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LogUtils.getInstance().writeError("Updating providers has been interrupted", e, handler);
+        } catch (ExecutionException e) {
+            LogUtils.getInstance().writeError("Failed to update providers", e, handler);
         }
     }
 
@@ -1,97 +1,145 @@
 package com.fusionjack.adhell3.utils;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+/**
+ * Single-pass validators for domains, wildcards and filter file entries.
+ * They accept exactly what the former regular expressions accepted:
+ *   domain:   (?=^.{4,253}$)(^((?!-)[a-z0-9-]{1,63}(?<!-)\.)+[a-z]{2,63}$)
+ *   wildcard: ^\*[a-z0-9-_.]+$ | ^[a-z0-9-_.]+\*$ | ^\*[a-z0-9-_.]+\*$
+ *   filter:   ||domain^ or ||domain^$third-party
+ * All comparisons are case-insensitive and nothing is allocated while validating.
+ */
 public final class BlockUrlPatternsMatch {
 
-    private static final String WILDCARD_PATTERN = "(?im)^(([*])([A-Z0-9-_.]+))$|^(([A-Z0-9-_.]+)([*]))$|^(([*])([A-Z0-9-_.]+)([*])$)";
-    private static final Pattern wildcard_r = Pattern.compile(WILDCARD_PATTERN);
+    private static final String FILTER_PREFIX = "||";
+    private static final String FILTER_SUFFIX = "^";
+    private static final String FILTER_THIRD_PARTY_SUFFIX = "^$third-party";
 
-    private static final String DOMAIN_PATTERN = "(?im)(?=^.{4,253}$)(^((?!-)[a-z0-9-]{1,63}(?<!-)\\.)+[a-z]{2,63}$)";
-    private static final Pattern domain_r = Pattern.compile(DOMAIN_PATTERN);
-
-    // Define pattern for filter files: ||something.com^ or ||something.com^$third-party
-    private static final String FILTER_PATTERN = "(?im)(?=.{4,253}\\^)((?<=^[|]{2})(((?!-)[a-z0-9-]{1,63}(?<!-)\\.)+[a-z]{2,63})(?=\\^([$]third-party)?$))";
-    private static final Pattern filter_r = Pattern.compile(FILTER_PATTERN);
+    private static final int MIN_DOMAIN_LENGTH = 4;
+    private static final int MAX_DOMAIN_LENGTH = 253;
+    private static final int MAX_LABEL_LENGTH = 63;
+    private static final int MIN_TLD_LENGTH = 2;
 
     private BlockUrlPatternsMatch() {
     }
 
-    private static boolean wildcardValid (String domain) {
-        return wildcard_r.matcher(domain).matches();
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
     }
 
-    private static boolean domainValid (String domain){
-        return domain_r.matcher(domain).matches();
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 
-    private static String validHostFileDomains(String hostFileStr) {
-
-        final Matcher filterPatternMatch = filter_r.matcher(hostFileStr);
-        final Matcher domainPatternMatch = domain_r.matcher(hostFileStr);
-        final Matcher wildcardPatternMatch = wildcard_r.matcher(hostFileStr);
-
-        // Create a new string builder to hold our valid domains
-        StringBuilder validDomainsStrBuilder = new StringBuilder();
-
-        // If the input file is in filter file format
-        if(filterPatternMatch.find())
-        {
-            // Reset the find()
-            filterPatternMatch.reset();
-            // While there are matches, add each to the StringBuilder
-            while(filterPatternMatch.find())
-            {
-                String filterListDomain = filterPatternMatch.group();
-                validDomainsStrBuilder.append(filterListDomain);
-                validDomainsStrBuilder.append("\n");
+    private static boolean wildcardValid(String domain) {
+        int start = 0;
+        int end = domain.length();
+        if (end > 0 && domain.charAt(0) == '*') {
+            start++;
+        }
+        if (end > start && domain.charAt(end - 1) == '*') {
+            end--;
+        }
+
+        // At least one asterisk and a non-empty body
+        if ((start == 0 && end == domain.length()) || start >= end) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char c = domain.charAt(i);
+            if (!isLetter(c) && !isDigit(c) && c != '-' && c != '_' && c != '.') {
+                return false;
             }
         }
-        // Otherwise, process as a standard host file
-        else
-        {
-            // If we find valid hosts
-            if(domainPatternMatch.find())
-            {
-                // Reset the find()
-                domainPatternMatch.reset();
-                // While there are matches, add each to the StringBuilder
-                while(domainPatternMatch.find())
-                {
-                    String Domain = domainPatternMatch.group();
-                    validDomainsStrBuilder.append(Domain);
-                    validDomainsStrBuilder.append("\n");
+        return true;
+    }
+
+    private static boolean domainValid(String domain) {
+        return domainValid(domain, 0, domain.length());
+    }
+
+    private static boolean domainValid(String domain, int start, int end) {
+        int length = end - start;
+        if (length < MIN_DOMAIN_LENGTH || length > MAX_DOMAIN_LENGTH) {
+            return false;
+        }
+
+        int labelStart = start;
+        int labelCount = 0;
+        for (int i = start; i < end; i++) {
+            char c = domain.charAt(i);
+            if (c == '.') {
+                int labelLength = i - labelStart;
+                if (labelLength == 0 || labelLength > MAX_LABEL_LENGTH) {
+                    return false;
+                }
+                if (domain.charAt(labelStart) == '-' || domain.charAt(i - 1) == '-') {
+                    return false;
                 }
+                labelStart = i + 1;
+                labelCount++;
+            } else if (!isLetter(c) && !isDigit(c) && c != '-') {
+                return false;
             }
+        }
 
-            // If we find valid wildcards
-            if(wildcardPatternMatch.find()) {
-                // Reset the find()
-                wildcardPatternMatch.reset();
-                // While there are matches, add each to the StringBuilder
-                while (wildcardPatternMatch.find())
-                {
-                    String Wildcard = wildcardPatternMatch.group();
-                    validDomainsStrBuilder.append(Wildcard);
-                    validDomainsStrBuilder.append("\n");
-                }
+        // The top level domain consists of letters only
+        int tldLength = end - labelStart;
+        if (labelCount == 0 || tldLength < MIN_TLD_LENGTH || tldLength > MAX_LABEL_LENGTH) {
+            return false;
+        }
+        for (int i = labelStart; i < end; i++) {
+            if (!isLetter(domain.charAt(i))) {
+                return false;
             }
         }
+        return true;
+    }
 
-        String validDomainsStr = validDomainsStrBuilder.toString();
+    /**
+     * @return the end index of the domain in a filter file entry, or -1 if the line is not a valid entry
+     */
+    private static int filterDomainEnd(String line) {
+        if (!line.startsWith(FILTER_PREFIX)) {
+            return -1;
+        }
 
-        return validDomainsStr;
+        int end;
+        int length = line.length();
+        int thirdPartyLength = FILTER_THIRD_PARTY_SUFFIX.length();
+        if (length >= thirdPartyLength &&
+                line.regionMatches(true, length - thirdPartyLength, FILTER_THIRD_PARTY_SUFFIX, 0, thirdPartyLength)) {
+            end = length - thirdPartyLength;
+        } else if (line.endsWith(FILTER_SUFFIX)) {
+            end = length - FILTER_SUFFIX.length();
+        } else {
+            return -1;
+        }
+
+        int start = FILTER_PREFIX.length();
+        return end > start && domainValid(line, start, end) ? end : -1;
     }
 
     public static boolean isUrlValid(String url) {
-        if (url.contains("*")) {
+        if (url.indexOf('*') != -1) {
             return BlockUrlPatternsMatch.wildcardValid(url);
         }
         return BlockUrlPatternsMatch.domainValid(url);
     }
 
-    public static String getValidHostFileDomains(String hostFileStr) {
-        return BlockUrlPatternsMatch.validHostFileDomains(hostFileStr);
+    public static boolean isDomainValid(String domain) {
+        return BlockUrlPatternsMatch.domainValid(domain);
+    }
+
+    public static boolean isWildcardValid(String wildcard) {
+        return BlockUrlPatternsMatch.wildcardValid(wildcard);
+    }
+
+    /**
+     * @return the domain of a filter file entry (||something.com^), or null if the line is not valid
+     */
+    public static String getFilterDomain(String line) {
+        int filterDomainEnd = BlockUrlPatternsMatch.filterDomainEnd(line);
+        return filterDomainEnd == -1 ? null : line.substring(FILTER_PREFIX.length(), filterDomainEnd);
     }
 
     public static String getValidatedUrl(String url) {
@@ -0,0 +1,291 @@
+package com.fusionjack.adhell3.utils;
+
+import android.support.annotation.Nullable;
+
+import com.fusionjack.adhell3.parser.ListFormatParser;
+import com.fusionjack.adhell3.parser.ListFormatReader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Ingests a host file in three overlapping stages: one thread reads the lines, several threads parse and
+ * validate them, and the calling thread writes the domains to the database.
+ * The stages exchange chunks of lines through bounded queues, so a slow stage holds back the faster ones
+ * and the memory usage stays flat. A failure in any stage ends all of them and is thrown by run(),
+ * nothing is committed by the writer in that case.
+ * <p>
+ * A stage which completes waits until the next stage has taken its end marker. A stage which fails
+ * only offers the end marker, and a stage which is interrupted by run() ends without one, so that
+ * no stage waits for a queue which is not drained anymore.
+ */
+public class BlockUrlPipeline {
+    private static final int CHUNK_SIZE = 1000;
+    private static final int QUEUE_CAPACITY = 16;
+    private static final int MAX_PARSER_THREADS = 4;
+
+    private static final String THREAD_NAME = "BlockUrlPipeline-";
+
+    // Marks the end of a queue, compared by identity
+    private static final List<String> END = new ArrayList<>(0);
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+
+    private final BlockingQueue<List<String>> lineQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<List<String>> domainQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final Stats stats = new Stats();
+    private final BufferedReader reader;
+    private final int parserCount;
+    private volatile ListFormatParser parser;
+
+    public BlockUrlPipeline(BufferedReader reader, @Nullable String format) {
+        this.reader = reader;
+        this.parser = ListFormatReader.getParser(format);
+        this.parserCount = Math.max(1, Math.min(MAX_PARSER_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * Receives the domains in the writing stage
+     */
+    public interface Sink {
+        /**
+         * @return whether a new row has been written for the domain
+         */
+        boolean insert(String domain) throws IOException;
+    }
+
+    /**
+     * Run all stages and write every valid domain, the reader is closed at the end.
+     */
+    public Stats run(Sink writer) throws IOException, InterruptedException {
+        long startTime = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(parserCount + 1,
+                runnable -> new Thread(runnable, THREAD_NAME + threadNumber.incrementAndGet()));
+        try {
+            executor.execute(this::read);
+            for (int i = 0; i < parserCount; i++) {
+                executor.execute(this::parse);
+            }
+            write(writer);
+        } finally {
+            executor.shutdownNow();
+            reader.close();
+        }
+
+        stats.totalNanos = System.nanoTime() - startTime;
+        return stats;
+    }
+
+    public String getFormat() {
+        return parser == null ? null : parser.getFormat();
+    }
+
+    private void read() {
+        try {
+            List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+            long startTime = System.nanoTime();
+            if (parser == null) {
+                detectParser(chunk);
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                chunk.add(line);
+                if (chunk.size() == CHUNK_SIZE) {
+                    stats.readNanos.addAndGet(System.nanoTime() - startTime);
+                    stats.lineCount.addAndGet(chunk.size());
+                    put(lineQueue, chunk, stats.lineQueueDepth);
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                    startTime = System.nanoTime();
+                }
+            }
+            stats.readNanos.addAndGet(System.nanoTime() - startTime);
+            stats.lineCount.addAndGet(chunk.size());
+            put(lineQueue, chunk, stats.lineQueueDepth);
+            for (int i = 0; i < parserCount; i++) {
+                lineQueue.put(END);
+            }
+        } catch (InterruptedException ignored) {
+            // Cancelled by run(), nobody takes from the queue anymore
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+            offerEnd(lineQueue, parserCount);
+        }
+    }
+
+    private void detectParser(List<String> chunk) throws IOException {
+        List<String> lines = new ArrayList<>(ListFormatReader.DETECTION_LINE_COUNT);
+        String line;
+        while (lines.size() < ListFormatReader.DETECTION_LINE_COUNT && (line = reader.readLine()) != null) {
+            chunk.add(line);
+            String cleanLine = ListFormatReader.cleanLine(line);
+            if (cleanLine != null) {
+                lines.add(cleanLine);
+            }
+        }
+        parser = ListFormatReader.detect(lines);
+    }
+
+    private void parse() {
+        try {
+            List<String> lines;
+            while ((lines = lineQueue.take()) != END) {
+                long startTime = System.nanoTime();
+                List<String> domains = new ArrayList<>(lines.size());
+                for (String line : lines) {
+                    String cleanLine = ListFormatReader.cleanLine(line);
+                    if (cleanLine != null) {
+                        String domain = parser.parseLine(cleanLine);
+                        if (domain != null) {
+                            domains.add(domain);
+                        }
+                    }
+                }
+                stats.parseNanos.addAndGet(System.nanoTime() - startTime);
+                put(domainQueue, domains, stats.domainQueueDepth);
+            }
+            domainQueue.put(END);
+        } catch (InterruptedException ignored) {
+            // Cancelled by run(), nobody takes from the queue anymore
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+            offerEnd(domainQueue, 1);
+        }
+    }
+
+    /**
+     * Wake up a waiting next stage after a failure. If the queue is full, the next stage is not waiting
+     * and finds the failure with the chunk it takes next.
+     */
+    private static void offerEnd(BlockingQueue<List<String>> queue, int count) {
+        for (int i = 0; i < count; i++) {
+            if (!queue.offer(END)) {
+                return;
+            }
+        }
+    }
+
+    private void write(Sink writer) throws IOException, InterruptedException {
+        int finishedParsers = 0;
+        while (finishedParsers < parserCount) {
+            List<String> domains = domainQueue.take();
+            throwFailure();
+            if (domains == END) {
+                finishedParsers++;
+                continue;
+            }
+            long startTime = System.nanoTime();
+            int rowCount = 0;
+            for (String domain : domains) {
+                if (writer.insert(domain)) {
+                    rowCount++;
+                }
+            }
+            stats.writeNanos.addAndGet(System.nanoTime() - startTime);
+            stats.rowCount.addAndGet(rowCount);
+            stats.domainCount.addAndGet(domains.size());
+        }
+        throwFailure();
+    }
+
+    private void throwFailure() throws IOException {
+        Throwable e = failure.get();
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        } else if (e != null) {
+            throw new IOException(e);
+        }
+    }
+
+    private void put(BlockingQueue<List<String>> queue, List<String> chunk, AtomicLong maxDepth) throws InterruptedException {
+        long depth = queue.size();
+        long max;
+        while (depth > (max = maxDepth.get()) && !maxDepth.compareAndSet(max, depth)) {
+            // Another thread has raised the maximum, compare again
+        }
+        queue.put(chunk);
+    }
+
+    /**
+     * Time spent in each stage and the highest number of chunks waiting in each queue.
+     * The parse time is summed over all parser threads.
+     */
+    public static class Stats {
+        private final AtomicLong lineCount = new AtomicLong();
+        private final AtomicLong domainCount = new AtomicLong();
+        private final AtomicLong rowCount = new AtomicLong();
+        private final AtomicLong readNanos = new AtomicLong();
+        private final AtomicLong parseNanos = new AtomicLong();
+        private final AtomicLong writeNanos = new AtomicLong();
+        private final AtomicLong lineQueueDepth = new AtomicLong();
+        private final AtomicLong domainQueueDepth = new AtomicLong();
+        private long totalNanos;
+
+        public long getLineCount() {
+            return lineCount.get();
+        }
+
+        public long getDomainCount() {
+            return domainCount.get();
+        }
+
+        /**
+         * @return the number of rows written, without the domains which were already stored
+         */
+        public long getRowCount() {
+            return rowCount.get();
+        }
+
+        /**
+         * @return the written rows per second of the whole run
+         */
+        public long getRowsPerSecond() {
+            return rowCount.get() * 1000000000L / Math.max(1, totalNanos);
+        }
+
+        public long getReadMillis() {
+            return readNanos.get() / 1000000;
+        }
+
+        public long getParseMillis() {
+            return parseNanos.get() / 1000000;
+        }
+
+        public long getWriteMillis() {
+            return writeNanos.get() / 1000000;
+        }
+
+        public long getTotalMillis() {
+            return totalNanos / 1000000;
+        }
+
+        public long getMaxLineQueueDepth() {
+            return lineQueueDepth.get();
+        }
+
+        public long getMaxDomainQueueDepth() {
+            return domainQueueDepth.get();
+        }
+
+        @Override
+        public String toString() {
+            return getDomainCount() + " domains from " + getLineCount() + " lines in " + getTotalMillis() + " ms" +
+                    " (" + getRowCount() + " rows, " + getRowsPerSecond() + " rows/s)" +
+                    " (read " + getReadMillis() + " ms, parse " + getParseMillis() + " ms, write " + getWriteMillis() + " ms," +
+                    " max queue depth " + getMaxLineQueueDepth() + "/" + getMaxDomainQueueDepth() + " of " + QUEUE_CAPACITY + ")";
+        }
+    }
+}
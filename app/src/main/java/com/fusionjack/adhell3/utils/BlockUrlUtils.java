@@ -1,117 +1,176 @@
 package com.fusionjack.adhell3.utils;
 
+import android.database.Cursor;
 import android.os.Handler;
-import android.support.annotation.NonNull;
-import android.webkit.URLUtil;
+import android.util.Log;
 
+import com.fusionjack.adhell3.App;
 import com.fusionjack.adhell3.db.AppDatabase;
+import com.fusionjack.adhell3.db.BlockUrlWriter;
 import com.fusionjack.adhell3.db.entity.BlockUrl;
 import com.fusionjack.adhell3.db.entity.BlockUrlProvider;
 import com.fusionjack.adhell3.db.entity.UserBlockUrl;
+import com.google.common.collect.Lists;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
 public class BlockUrlUtils {
+    private static final String TAG = BlockUrlUtils.class.getCanonicalName();
+    // SQLite allows at most 999 host parameters per statement
+    private static final int DELETE_BATCH_SIZE = 900;
+    private static final String RAW_CACHE_DIR = "providers";
+
+    public static int loadBlockUrls(BlockUrlProvider blockUrlProvider, AppDatabase appDatabase) throws IOException, URISyntaxException, InterruptedException {
+        // Reading, parsing and writing overlap and exchange the domains in bounded chunks,
+        // so that the memory usage does not depend on the size of the host file
+        ProviderDownloader.Download download = getDownloader().open(blockUrlProvider, false);
+        BlockUrlPipeline pipeline = new BlockUrlPipeline(download.getReader(), blockUrlProvider.format);
+        // The urls of the provider are replaced as a whole, or kept if anything fails. The writer joins this
+        // transaction, its batches are not committed separately so that no partial list becomes visible.
+        int rowCount;
+        appDatabase.beginTransaction();
+        try (BlockUrlWriter writer = new BlockUrlWriter(appDatabase, blockUrlProvider.id)) {
+            appDatabase.blockUrlDao().deleteByProviderId(blockUrlProvider.id);
+            BlockUrlPipeline.Stats stats = pipeline.run(writer::insert);
+            writer.commit();
+            appDatabase.setTransactionSuccessful();
+            Log.d(TAG, "Loaded " + blockUrlProvider.url + " (" + pipeline.getFormat() + "): " + stats);
+            rowCount = writer.getRowCount();
+        } finally {
+            appDatabase.endTransaction();
+        }
+        // Only a committed list may be answered with 304 later, the caller stores the validators with the provider
+        download.applyValidators(blockUrlProvider);
+        return rowCount;
+    }
 
-    @NonNull
-    public static List<BlockUrl> loadBlockUrls(BlockUrlProvider blockUrlProvider) throws IOException, URISyntaxException {
-        BufferedReader bufferedReader;
-        if (URLUtil.isFileUrl(blockUrlProvider.url)) {
-            File file = new File(new URI(blockUrlProvider.url));
-            bufferedReader = new BufferedReader(new FileReader(file));
+    /**
+     * Download and parse a provider without touching the database.
+     *
+     * @return the urls of the provider, or null if the provider has not changed since the last update
+     */
+    public static ProviderDownloader.Result fetchBlockUrls(BlockUrlProvider blockUrlProvider) throws IOException, URISyntaxException {
+        long startTime = System.currentTimeMillis();
+        ProviderDownloader.Result result = getDownloader().fetch(blockUrlProvider);
+        long elapsedTime = System.currentTimeMillis() - startTime;
+        if (result == null) {
+            Log.d(TAG, "Not modified: " + blockUrlProvider.url);
         } else {
-            URL urlProviderUrl = new URL(blockUrlProvider.url);
-            URLConnection connection = urlProviderUrl.openConnection();
-            bufferedReader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+            Log.d(TAG, "Fetched " + result.getUrls().size() + " urls of " + blockUrlProvider.url + " in " + elapsedTime + " ms");
         }
+        return result;
+    }
 
-        List<BlockUrl> blockUrls = new ArrayList<>();
+    /**
+     * Apply the difference between the stored and the given urls of a provider in one transaction.
+     * Only removed and added urls are written, the sizes of both are recorded in the provider.
+     * The validators of the download are stored with them, so that a list is only answered with 304 once it is committed.
+     */
+    public static void saveBlockUrls(BlockUrlProvider blockUrlProvider, ProviderDownloader.Result result, AppDatabase appDatabase) throws IOException {
+        long startTime = System.currentTimeMillis();
+        Set<String> newUrls = new LinkedHashSet<>(result.getUrls());
+        appDatabase.beginTransaction();
+        try {
+            // Stored urls which are no longer in the list are removed from the provider
+            Set<String> keptUrls = new HashSet<>();
+            List<Long> removedIds = new ArrayList<>();
+            for (BlockUrl blockUrl : appDatabase.blockUrlDao().getUrlsByProviderId(blockUrlProvider.id)) {
+                if (newUrls.contains(blockUrl.url)) {
+                    keptUrls.add(blockUrl.url);
+                } else {
+                    removedIds.add(blockUrl.id);
+                }
+            }
+            for (List<Long> ids : Lists.partition(removedIds, DELETE_BATCH_SIZE)) {
+                appDatabase.blockUrlDao().deleteByDomainIds(blockUrlProvider.id, ids);
+            }
 
-        // Create a new StringBuilder object to hold our host file
-        StringBuilder hostFile = new StringBuilder();
-        String inputLine;
-        // Add all lines to the StringBuilder
-        while ((inputLine = bufferedReader.readLine()) != null) {
-            hostFile.append(getDomain(inputLine.trim().toLowerCase()));
-            hostFile.append("\n");
-        }
-        bufferedReader.close();
-
-        // Convert host file to string
-        String hostFileStr = hostFile.toString();
-
-        // If we received any host file data
-        if(!hostFileStr.isEmpty()) {
-            // Fetch valid domains
-            String[] validated_hosts = BlockUrlPatternsMatch.getValidHostFileDomains(hostFileStr).split("\n");
-            // Add each domain to blockUrls
-            for (String validatedDomain : validated_hosts) {
-                BlockUrl blockUrl = new BlockUrl(validatedDomain, blockUrlProvider.id);
-                blockUrls.add(blockUrl);
+            int addedCount;
+            try (BlockUrlWriter writer = new BlockUrlWriter(appDatabase, blockUrlProvider.id)) {
+                for (String url : newUrls) {
+                    if (!keptUrls.contains(url)) {
+                        writer.insert(url);
+                    }
+                }
+                addedCount = writer.getRowCount();
+                writer.commit();
             }
+
+            blockUrlProvider.count = newUrls.size();
+            blockUrlProvider.addedCount = addedCount;
+            blockUrlProvider.removedCount = removedIds.size();
+            blockUrlProvider.lastUpdated = new Date();
+            result.applyValidators(blockUrlProvider);
+            appDatabase.blockUrlProviderDao().updateBlockUrlProviders(blockUrlProvider);
+            appDatabase.setTransactionSuccessful();
+        } finally {
+            appDatabase.endTransaction();
         }
 
-        return blockUrls;
+        long elapsedTime = System.currentTimeMillis() - startTime;
+        Log.d(TAG, "Saved " + blockUrlProvider.url + ": +" + blockUrlProvider.addedCount +
+                " -" + blockUrlProvider.removedCount + " in " + elapsedTime + " ms");
     }
 
-    private static String getDomain(String inputLine) {
-        return inputLine
-                // Remove 'deadzone' - We only want the domain
-                .replace("127.0.0.1", "")
-                .replace("0.0.0.0", "")
-
-                // Remove whitespace
-                .replaceAll("\\s","")
+    private static ProviderDownloader getDownloader() {
+        return new ProviderDownloader(new File(App.get().getFilesDir(), RAW_CACHE_DIR));
+    }
 
-                // Remove comments
-                .replaceAll("(#.*)|((\\s)+#.*)","")
+    public static void deleteRawCache(BlockUrlProvider blockUrlProvider) {
+        File cacheFile = getDownloader().getRawCacheFile(blockUrlProvider);
+        if (cacheFile.exists() && !cacheFile.delete()) {
+            Log.w(TAG, "Unable to delete " + cacheFile);
+        }
+    }
 
-                // Remove WWW, WWW1 etc. prefix
-                .replaceAll("^(www)([0-9]{0,3})?(\\.)","");
+    /**
+     * Delete the raw cache of every provider, e.g. when the providers are replaced by a restore
+     */
+    public static void deleteAllRawCaches() {
+        File cacheDir = getDownloader().getCacheDir();
+        File[] cacheFiles = cacheDir.listFiles();
+        if (cacheFiles == null) {
+            return;
+        }
+        for (File cacheFile : cacheFiles) {
+            if (!cacheFile.delete()) {
+                Log.w(TAG, "Unable to delete " + cacheFile);
+            }
+        }
     }
 
     public static Set<String> getUniqueBlockedUrls(AppDatabase appDatabase, Handler handler, boolean enableLog) {
-        Set<String> denyList = new HashSet<>();
-
-        // Process user-defined blocked URLs
-        int userBlockUrlCount = 0;
-        List<UserBlockUrl> userBlockUrls = appDatabase.userBlockUrlDao().getAll2();
-        for (UserBlockUrl userBlockUrl : userBlockUrls) {
-            if (userBlockUrl.url.indexOf('|') == -1) {
-                final String url = BlockUrlPatternsMatch.getValidatedUrl(userBlockUrl.url);
-                denyList.add(url);
-                if (enableLog) {
-                    LogUtils.getInstance().writeInfo("UserBlockUrl: " + url, handler);
+        if (enableLog) {
+            int userBlockUrlCount = 0;
+            List<UserBlockUrl> userBlockUrls = appDatabase.userBlockUrlDao().getAll2();
+            for (UserBlockUrl userBlockUrl : userBlockUrls) {
+                if (userBlockUrl.url.indexOf('|') == -1) {
+                    LogUtils.getInstance().writeInfo("UserBlockUrl: " + BlockUrlPatternsMatch.getValidatedUrl(userBlockUrl.url), handler);
+                    userBlockUrlCount++;
                 }
-                userBlockUrlCount++;
             }
-        }
-        if (enableLog) {
             LogUtils.getInstance().writeInfo("User blocked URL size: " + userBlockUrlCount, handler);
-        }
 
-        // Process all blocked URL providers
-        List<BlockUrlProvider> blockUrlProviders = appDatabase.blockUrlProviderDao().getBlockUrlProviderBySelectedFlag(1);
-        for (BlockUrlProvider blockUrlProvider : blockUrlProviders) {
-            List<BlockUrl> blockUrls = appDatabase.blockUrlDao().getUrlsByProviderId(blockUrlProvider.id);
-            if (enableLog) {
-                LogUtils.getInstance().writeInfo("Included url provider: " + blockUrlProvider.url + ", size: " + blockUrls.size(), handler);
+            List<BlockUrlProvider> blockUrlProviders = appDatabase.blockUrlProviderDao().getBlockUrlProviderBySelectedFlag(1);
+            for (BlockUrlProvider blockUrlProvider : blockUrlProviders) {
+                int size = appDatabase.blockUrlDao().getUrlCountByProviderId(blockUrlProvider.id);
+                LogUtils.getInstance().writeInfo("Included url provider: " + blockUrlProvider.url + ", size: " + size, handler);
             }
+        }
 
-            for (BlockUrl blockUrl : blockUrls) {
-                denyList.add(BlockUrlPatternsMatch.getValidatedUrl(blockUrl.url));
+        // User-defined and provider URLs come deduplicated from one query and are read row by row
+        Set<String> denyList = new HashSet<>();
+        try (Cursor cursor = appDatabase.blockUrlDao().getUniqueBlockedUrls()) {
+            while (cursor.moveToNext()) {
+                denyList.add(BlockUrlPatternsMatch.getValidatedUrl(cursor.getString(0)));
             }
         }
 
@@ -123,15 +182,7 @@ public class BlockUrlUtils {
     }
 
     public static List<String> getAllBlockedUrls(AppDatabase appDatabase) {
-        List<String> result = new ArrayList<>();
-        List<BlockUrlProvider> blockUrlProviders = appDatabase.blockUrlProviderDao().getBlockUrlProviderBySelectedFlag(1);
-        for (BlockUrlProvider blockUrlProvider : blockUrlProviders) {
-            List<BlockUrl> blockUrls = appDatabase.blockUrlDao().getUrlsByProviderId(blockUrlProvider.id);
-            for (BlockUrl blockUrl : blockUrls) {
-                result.add(blockUrl.url);
-            }
-        }
-        return result;
+        return appDatabase.blockUrlDao().getSelectedUrls();
     }
 
     public static List<String> getBlockedUrls(long providerId, AppDatabase appDatabase) {
@@ -144,15 +195,7 @@ public class BlockUrlUtils {
     }
 
     public static List<String> getFilteredBlockedUrls(String filterText, AppDatabase appDatabase) {
-        List<String> result = new ArrayList<>();
-        List<BlockUrlProvider> blockUrlProviders = appDatabase.blockUrlProviderDao().getBlockUrlProviderBySelectedFlag(1);
-        for (BlockUrlProvider blockUrlProvider : blockUrlProviders) {
-            List<BlockUrl> blockUrls = appDatabase.blockUrlDao().getByUrl(blockUrlProvider.id, filterText);
-            for (BlockUrl blockUrl: blockUrls) {
-                result.add(blockUrl.url);
-            }
-        }
-        return result;
+        return appDatabase.blockUrlDao().getSelectedUrlsLike(filterText);
     }
 
     public static List<String> getFilteredBlockedUrls(String filterText, long providerId, AppDatabase appDatabase) {
@@ -171,12 +214,6 @@ public class BlockUrlUtils {
     }
 
     public static int getTotalDomainsCount(AppDatabase appDatabase) {
-        int total = 0;
-        List<BlockUrlProvider> blockUrlProviders = appDatabase.blockUrlProviderDao().getBlockUrlProviderBySelectedFlag(1);
-        for (BlockUrlProvider blockUrlProvider : blockUrlProviders) {
-            total += appDatabase.blockUrlDao().getUrlCountByProviderId(blockUrlProvider.id);
-        }
-        return total;
+        return appDatabase.blockUrlDao().getSelectedUrlCount();
     }
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,225 @@
+package com.fusionjack.adhell3.utils;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.fusionjack.adhell3.blocker.FirewallGateway;
+import com.fusionjack.adhell3.db.AppDatabase;
+import com.fusionjack.adhell3.db.dao.ReportBlockedStatDao;
+import com.fusionjack.adhell3.db.dao.ReportBlockedUrlDao;
+import com.fusionjack.adhell3.db.entity.ReportBlockedEvent;
+import com.fusionjack.adhell3.db.entity.ReportBlockedStat;
+import com.fusionjack.adhell3.db.entity.ReportBlockedUrl;
+import com.fusionjack.adhell3.db.entity.ReportCursor;
+import com.fusionjack.adhell3.db.entity.ReportDomain;
+import com.fusionjack.adhell3.db.entity.ReportPackage;
+import com.google.common.collect.Lists;
+import com.sec.enterprise.firewall.DomainFilterReport;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores the domains blocked by Knox since the last collection.
+ * The newest report time and the number of reports with that time are kept as a cursor in ReportCursor,
+ * so that every report is stored once, also when several reports share the same second.
+ * New reports are stored in batches, the cursor is moved in the same transaction as every batch. Domains and package names
+ * are stored once in ReportDomain and ReportPackage, the reports and the counts only refer to their ids.
+ * The reports are counted per hour as they are stored. The single reports are kept for a day, the hourly
+ * counts are summed up per day after a week and the daily counts are kept for a year.
+ */
+public final class BlockedDomainCollector {
+    private static final String TAG = BlockedDomainCollector.class.getCanonicalName();
+    private static final String LAST_RUN_TIME = "adhell_report_collector_last_run";
+    private static final String LAST_RUN_DURATION = "adhell_report_collector_last_duration";
+    private static final String LAST_RUN_COUNT = "adhell_report_collector_last_count";
+    private static final int BATCH_SIZE = 500;
+    private static final long RETENTION_TIME = TimeUnit.DAYS.toMillis(1);
+    private static final int HOURLY_RETENTION_DAYS = 7;
+    private static final long DAILY_RETENTION_TIME = TimeUnit.DAYS.toMillis(365);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private BlockedDomainCollector() {
+    }
+
+    /**
+     * @return the number of new blocked domains
+     */
+    public static synchronized int collect(FirewallGateway firewall, AppDatabase appDatabase) {
+        long startTime = System.currentTimeMillis();
+        List<DomainFilterReport> reports = firewall.getDomainFilterReport(null);
+        if (reports == null) {
+            return 0;
+        }
+
+        ReportBlockedUrlDao reportBlockedUrlDao = appDatabase.reportBlockedUrlDao();
+        // Without a cursor nothing has been stored yet
+        ReportCursor cursor = reportBlockedUrlDao.getCursor();
+        long lastTime = cursor == null ? 0 : cursor.lastTime;
+        int lastCount = cursor == null ? 0 : cursor.lastCount;
+
+        List<ReportBlockedUrl> reportBlockedUrls = new ArrayList<>();
+        int seenAtLastTime = 0;
+        for (DomainFilterReport report : reports) {
+            long time = report.getTimeStamp();
+            if (time < lastTime) {
+                continue;
+            }
+            // The first reports of the last time have been stored by the previous collection
+            if (time == lastTime && ++seenAtLastTime <= lastCount) {
+                continue;
+            }
+            reportBlockedUrls.add(new ReportBlockedUrl(report.getDomainUrl(), report.getPackageName(), time * 1000));
+        }
+        // The cursor can only move forward when the reports are stored from old to new
+        Collections.sort(reportBlockedUrls, (url1, url2) ->
+                url1.blockDate < url2.blockDate ? -1 : (url1.blockDate == url2.blockDate ? 0 : 1));
+
+        // Domains and packages repeat a lot, their ids are looked up once per collection
+        Map<String, Long> domainIds = new HashMap<>();
+        Map<String, Long> packageIds = new HashMap<>();
+        long newTime = lastTime;
+        int newCount = lastCount;
+        for (List<ReportBlockedUrl> batch : Lists.partition(reportBlockedUrls, BATCH_SIZE)) {
+            for (ReportBlockedUrl reportBlockedUrl : batch) {
+                long time = reportBlockedUrl.blockDate / 1000;
+                if (time == newTime) {
+                    newCount++;
+                } else {
+                    newTime = time;
+                    newCount = 1;
+                }
+            }
+
+            appDatabase.beginTransaction();
+            try {
+                List<ReportBlockedEvent> events = new ArrayList<>(batch.size());
+                for (ReportBlockedUrl reportBlockedUrl : batch) {
+                    events.add(new ReportBlockedEvent(
+                            getDomainId(reportBlockedUrlDao, domainIds, reportBlockedUrl.url),
+                            getPackageId(reportBlockedUrlDao, packageIds, reportBlockedUrl.packageName),
+                            reportBlockedUrl.blockDate));
+                }
+                reportBlockedUrlDao.insertAll(events);
+                addHourlyStats(appDatabase.reportBlockedStatDao(), events);
+                reportBlockedUrlDao.setCursor(new ReportCursor(newTime, newCount));
+                appDatabase.setTransactionSuccessful();
+            } finally {
+                appDatabase.endTransaction();
+            }
+        }
+
+        appDatabase.beginTransaction();
+        try {
+            reportBlockedUrlDao.deleteBefore(System.currentTimeMillis() - RETENTION_TIME);
+            downsampleStats(appDatabase.reportBlockedStatDao());
+            reportBlockedUrlDao.deleteOrphanDomains();
+            reportBlockedUrlDao.deleteOrphanPackages();
+            appDatabase.setTransactionSuccessful();
+        } finally {
+            appDatabase.endTransaction();
+        }
+
+        long duration = System.currentTimeMillis() - startTime;
+        SharedPreferences sharedPreferences = AdhellFactory.getInstance().getSharedPreferences();
+        sharedPreferences.edit()
+                .putLong(LAST_RUN_TIME, startTime)
+                .putLong(LAST_RUN_DURATION, duration)
+                .putInt(LAST_RUN_COUNT, reportBlockedUrls.size())
+                .apply();
+
+        Log.d(TAG, "Stored " + reportBlockedUrls.size() + " new of " + reports.size() + " reported domains in " + duration + " ms");
+        return reportBlockedUrls.size();
+    }
+
+    /**
+     * @return the start time of the last collection, 0 if there was none yet
+     */
+    public static long getLastRunTime() {
+        return AdhellFactory.getInstance().getSharedPreferences().getLong(LAST_RUN_TIME, 0);
+    }
+
+    public static long getLastRunDuration() {
+        return AdhellFactory.getInstance().getSharedPreferences().getLong(LAST_RUN_DURATION, 0);
+    }
+
+    public static int getLastRunCount() {
+        return AdhellFactory.getInstance().getSharedPreferences().getInt(LAST_RUN_COUNT, 0);
+    }
+
+    private static long getDomainId(ReportBlockedUrlDao reportBlockedUrlDao, Map<String, Long> domainIds, String url) {
+        String key = url == null ? "" : url;
+        Long id = domainIds.get(key);
+        if (id == null) {
+            id = reportBlockedUrlDao.getDomainId(key);
+            if (id == null) {
+                id = reportBlockedUrlDao.insertDomain(new ReportDomain(key));
+            }
+            domainIds.put(key, id);
+        }
+        return id;
+    }
+
+    private static long getPackageId(ReportBlockedUrlDao reportBlockedUrlDao, Map<String, Long> packageIds, String packageName) {
+        String key = packageName == null ? "" : packageName;
+        Long id = packageIds.get(key);
+        if (id == null) {
+            id = reportBlockedUrlDao.getPackageId(key);
+            if (id == null) {
+                id = reportBlockedUrlDao.insertPackage(new ReportPackage(key));
+            }
+            packageIds.put(key, id);
+        }
+        return id;
+    }
+
+    private static void addHourlyStats(ReportBlockedStatDao reportBlockedStatDao, List<ReportBlockedEvent> events) {
+        Map<String, ReportBlockedStat> stats = new HashMap<>();
+        for (ReportBlockedEvent event : events) {
+            ReportBlockedStat stat = new ReportBlockedStat(ReportBlockedStat.GRANULARITY_HOUR,
+                    event.blockDate / HOUR * HOUR, event.domainId, event.packageId);
+            String key = stat.bucket + "|" + stat.domainId + "|" + stat.packageId;
+            ReportBlockedStat existingStat = stats.get(key);
+            if (existingStat == null) {
+                stats.put(key, stat);
+                existingStat = stat;
+            }
+            existingStat.count++;
+        }
+        for (ReportBlockedStat stat : stats.values()) {
+            addStat(reportBlockedStatDao, stat);
+        }
+    }
+
+    private static void downsampleStats(ReportBlockedStatDao reportBlockedStatDao) {
+        // Only whole days are summed up, so that every day is summed up once
+        Calendar cal = Calendar.getInstance();
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        cal.add(Calendar.DATE, -HOURLY_RETENTION_DAYS);
+        long hourlyBefore = cal.getTimeInMillis();
+        long offset = TimeZone.getDefault().getOffset(hourlyBefore);
+
+        List<ReportBlockedStat> dailyStats = reportBlockedStatDao.getHourlyPerDayBefore(hourlyBefore, offset);
+        for (ReportBlockedStat stat : dailyStats) {
+            addStat(reportBlockedStatDao, stat);
+        }
+        reportBlockedStatDao.deleteBefore(ReportBlockedStat.GRANULARITY_HOUR, hourlyBefore);
+        reportBlockedStatDao.deleteBefore(ReportBlockedStat.GRANULARITY_DAY, System.currentTimeMillis() - DAILY_RETENTION_TIME);
+    }
+
+    private static void addStat(ReportBlockedStatDao reportBlockedStatDao, ReportBlockedStat stat) {
+        int updated = reportBlockedStatDao.addCount(stat.granularity, stat.bucket, stat.domainId, stat.packageId, stat.count);
+        if (updated == 0) {
+            reportBlockedStatDao.insert(stat);
+        }
+    }
+}
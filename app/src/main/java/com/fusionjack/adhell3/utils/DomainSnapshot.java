@@ -0,0 +1,239 @@
+package com.fusionjack.adhell3.utils;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.fusionjack.adhell3.App;
+import com.fusionjack.adhell3.db.AppDatabase;
+import com.fusionjack.adhell3.db.entity.BlockUrlProvider;
+import com.fusionjack.adhell3.db.entity.UserBlockUrl;
+import com.fusionjack.adhell3.db.entity.WhiteUrl;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Compiled deny list and global allow list of the domain rules, kept in a binary file.
+ * The deny list only contains the entries which are not covered by a broader deny entry or an allow entry.
+ * The snapshot is tagged with a fingerprint of the providers, the user blocked urls and the white urls,
+ * and is only rebuilt from the database when that fingerprint changes. It is loaded from the file
+ * whenever it is needed, so the deny list is only held in memory while the caller uses it.
+ */
+public final class DomainSnapshot {
+    private static final String TAG = DomainSnapshot.class.getCanonicalName();
+    private static final String SNAPSHOT_FILE = "domain_snapshot.bin";
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+    private static final int MAGIC = 0x41443353;
+    private static final int VERSION = 2;
+
+    private final String fingerprint;
+    private final List<String> denyList;
+    private final List<String> allowList;
+    private final String hash;
+
+    private DomainSnapshot(String fingerprint, List<String> denyList, List<String> allowList) {
+        this.fingerprint = fingerprint;
+        this.denyList = Collections.unmodifiableList(denyList);
+        this.allowList = Collections.unmodifiableList(allowList);
+
+        MessageDigest digest = newDigest();
+        try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(ByteStreams.nullOutputStream(), digest))) {
+            writeBody(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.hash = toHex(digest.digest());
+    }
+
+    /**
+     * @return the snapshot of the current database content, rebuilt only if it is outdated
+     */
+    public static synchronized DomainSnapshot get(AppDatabase appDatabase) {
+        String fingerprint = getFingerprint(appDatabase);
+        File file = new File(App.get().getFilesDir(), SNAPSHOT_FILE);
+        DomainSnapshot snapshot = read(file, fingerprint);
+        if (snapshot == null) {
+            long startTime = System.currentTimeMillis();
+            snapshot = build(appDatabase, fingerprint);
+            try {
+                snapshot.write(file);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to write " + file, e);
+            }
+            Log.d(TAG, "Rebuilt snapshot " + snapshot.getHash() + " in " + (System.currentTimeMillis() - startTime) + " ms");
+        }
+        return snapshot;
+    }
+
+    /**
+     * Sorted and minimized deny list, each entry is prefixed as expected by Knox
+     */
+    public List<String> getDenyList() {
+        return denyList;
+    }
+
+    /**
+     * Sorted and unique allow list for all apps, each entry is prefixed as expected by Knox
+     */
+    public List<String> getAllowList() {
+        return allowList;
+    }
+
+    /**
+     * @return the content hash of the deny and allow list
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    private static DomainSnapshot build(AppDatabase appDatabase, String fingerprint) {
+        Set<String> uniqueDenyList = BlockUrlUtils.getUniqueBlockedUrls(appDatabase, null, false);
+        Set<String> allowList = new TreeSet<>();
+        for (WhiteUrl whiteUrl : appDatabase.whiteUrlDao().getAll2()) {
+            if (whiteUrl.url.indexOf('|') == -1) {
+                allowList.add(BlockUrlPatternsMatch.getValidatedUrl(whiteUrl.url));
+            }
+        }
+
+        // Knox does not need the domains which are already covered by a broader entry or allowed for all apps
+        Set<String> denyList = new TreeSet<>(ReversedDomainIndex.minimize(uniqueDenyList, allowList));
+        Log.d(TAG, "Minimized deny list from " + uniqueDenyList.size() + " to " + denyList.size() + " entries");
+        return new DomainSnapshot(fingerprint, new ArrayList<>(denyList), new ArrayList<>(allowList));
+    }
+
+    private static String getFingerprint(AppDatabase appDatabase) {
+        MessageDigest digest = newDigest();
+        StringBuilder builder = new StringBuilder();
+        for (BlockUrlProvider provider : appDatabase.blockUrlProviderDao().getAll2()) {
+            builder.append(provider.id).append(',')
+                    .append(provider.selected).append(',')
+                    .append(provider.count).append(',')
+                    .append(provider.lastUpdated == null ? 0 : provider.lastUpdated.getTime()).append('\n');
+        }
+        for (UserBlockUrl userBlockUrl : appDatabase.userBlockUrlDao().getAll2()) {
+            builder.append(userBlockUrl.url).append('\n');
+        }
+        builder.append('\n');
+        for (WhiteUrl whiteUrl : appDatabase.whiteUrlDao().getAll2()) {
+            builder.append(whiteUrl.url).append('\n');
+        }
+        return toHex(digest.digest(builder.toString().getBytes()));
+    }
+
+    private void write(File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        MessageDigest digest = newDigest();
+        try (DigestOutputStream digestStream = new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)), digest);
+             DataOutputStream out = new DataOutputStream(digestStream)) {
+            digestStream.on(false);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(fingerprint);
+            digestStream.on(true);
+            writeBody(out);
+
+            out.flush();
+            byte[] hashBytes = digest.digest();
+            digestStream.on(false);
+            out.writeInt(hashBytes.length);
+            out.write(hashBytes);
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Unable to rename " + tempFile + " to " + file);
+        }
+    }
+
+    /**
+     * @return the snapshot in the file, null if it has another fingerprint or cannot be read
+     */
+    @Nullable
+    private static DomainSnapshot read(File file, String expectedFingerprint) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        MessageDigest digest = newDigest();
+        try (DigestInputStream digestStream = new DigestInputStream(new BufferedInputStream(new FileInputStream(file)), digest);
+             DataInputStream in = new DataInputStream(digestStream)) {
+            digestStream.on(false);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            String fingerprint = in.readUTF();
+            if (!fingerprint.equals(expectedFingerprint)) {
+                return null;
+            }
+            digestStream.on(true);
+            List<String> denyList = readList(in);
+            List<String> allowList = readList(in);
+
+            byte[] hashBytes = digest.digest();
+            digestStream.on(false);
+            byte[] storedHashBytes = new byte[in.readInt()];
+            in.readFully(storedHashBytes);
+            if (!Arrays.equals(hashBytes, storedHashBytes)) {
+                Log.w(TAG, "Snapshot is corrupted: " + file);
+                return null;
+            }
+            return new DomainSnapshot(fingerprint, denyList, allowList);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read " + file, e);
+            return null;
+        }
+    }
+
+    // Only the body is covered by the hash
+    private void writeBody(DataOutputStream out) throws IOException {
+        writeList(out, denyList);
+        writeList(out, allowList);
+    }
+
+    private static void writeList(DataOutputStream out, List<String> list) throws IOException {
+        out.writeInt(list.size());
+        for (String entry : list) {
+            out.writeUTF(entry);
+        }
+    }
+
+    private static List<String> readList(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<String> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(in.readUTF());
+        }
+        return list;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,266 @@
+package com.fusionjack.adhell3.utils;
+
+import android.support.annotation.Nullable;
+
+import com.fusionjack.adhell3.db.entity.BlockUrlProvider;
+import com.fusionjack.adhell3.parser.ListFormatReader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Downloads and parses the host file of a provider. The body of an http response is also written compressed
+ * to the raw cache, so that a conditional request can be answered with 304 the next time.
+ * The connections are opened through a ConnectionFactory, so that a local server can stand in for the providers.
+ * The validators of a response are not recorded in the provider here, the caller applies them in the transaction
+ * which stores the urls. A list which fails to download or store is therefore requested in full again.
+ */
+public class ProviderDownloader {
+    private static final String FILE_URL_PREFIX = "file://";
+
+    public interface ConnectionFactory {
+        URLConnection open(URL url) throws IOException;
+    }
+
+    private final File cacheDir;
+    private final ConnectionFactory connectionFactory;
+
+    public ProviderDownloader(File cacheDir) {
+        this(cacheDir, URL::openConnection);
+    }
+
+    public ProviderDownloader(File cacheDir, ConnectionFactory connectionFactory) {
+        this.cacheDir = cacheDir;
+        this.connectionFactory = connectionFactory;
+    }
+
+    /**
+     * Download and parse a provider without touching the database.
+     *
+     * @return the urls of the provider, or null if the provider has not changed since the last update
+     */
+    @Nullable
+    public Result fetch(BlockUrlProvider blockUrlProvider) throws IOException, URISyntaxException {
+        Download download = open(blockUrlProvider, true);
+        if (download == null) {
+            return null;
+        }
+
+        List<String> urls = new ArrayList<>();
+        try (ListFormatReader reader = new ListFormatReader(download.getReader(), blockUrlProvider.format)) {
+            String domain;
+            while ((domain = reader.readDomain()) != null) {
+                urls.add(domain);
+            }
+        }
+        return new Result(urls, download.validators);
+    }
+
+    /**
+     * Open the host file of a provider
+     *
+     * @return the host file, or null if the conditional request is answered with 304
+     */
+    @Nullable
+    public Download open(BlockUrlProvider blockUrlProvider, boolean conditional) throws IOException, URISyntaxException {
+        if (blockUrlProvider.url.startsWith(FILE_URL_PREFIX)) {
+            File file = new File(new URI(blockUrlProvider.url));
+            return new Download(new BufferedReader(new FileReader(file)), null);
+        }
+        URLConnection connection = connectionFactory.open(new URL(blockUrlProvider.url));
+        if (!(connection instanceof HttpURLConnection)) {
+            return new Download(new BufferedReader(new InputStreamReader(connection.getInputStream())), null);
+        }
+
+        HttpURLConnection httpConnection = (HttpURLConnection) connection;
+        File cacheFile = getRawCacheFile(blockUrlProvider);
+        boolean cached = conditional && cacheFile.exists();
+        if (cached) {
+            if (blockUrlProvider.etag != null) {
+                httpConnection.setRequestProperty("If-None-Match", blockUrlProvider.etag);
+            }
+            if (blockUrlProvider.lastModified != null) {
+                httpConnection.setRequestProperty("If-Modified-Since", blockUrlProvider.lastModified);
+            }
+        }
+
+        if (cached && httpConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            httpConnection.disconnect();
+            if (blockUrlProvider.count > 0) {
+                return null;
+            }
+            // Nothing is stored for this provider, parse the cached host file again. It belongs to the validators
+            // which are already recorded, so they are kept.
+            return new Download(new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(cacheFile)))), null);
+        }
+
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            throw new IOException("Unable to create " + cacheDir);
+        }
+        InputStream inputStream = new RawCacheInputStream(httpConnection.getInputStream(), cacheFile);
+        Validators validators = new Validators(httpConnection.getHeaderField("ETag"), httpConnection.getHeaderField("Last-Modified"));
+        return new Download(new BufferedReader(new InputStreamReader(inputStream)), validators);
+    }
+
+    public File getRawCacheFile(BlockUrlProvider blockUrlProvider) {
+        return new File(cacheDir, blockUrlProvider.id + ".gz");
+    }
+
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * The host file of a provider, which is read by the caller
+     */
+    public static class Download {
+        private final BufferedReader reader;
+        @Nullable
+        private final Validators validators;
+
+        Download(BufferedReader reader, @Nullable Validators validators) {
+            this.reader = reader;
+            this.validators = validators;
+        }
+
+        public BufferedReader getReader() {
+            return reader;
+        }
+
+        /**
+         * Record the validators of the response in the provider, once its urls have been committed
+         */
+        public void applyValidators(BlockUrlProvider blockUrlProvider) {
+            if (validators != null) {
+                validators.applyTo(blockUrlProvider);
+            }
+        }
+    }
+
+    /**
+     * The parsed urls of a provider
+     */
+    public static class Result {
+        private final List<String> urls;
+        @Nullable
+        private final Validators validators;
+
+        Result(List<String> urls, @Nullable Validators validators) {
+            this.urls = urls;
+            this.validators = validators;
+        }
+
+        public List<String> getUrls() {
+            return urls;
+        }
+
+        /**
+         * Record the validators of the response in the provider, in the transaction which stores the urls
+         */
+        public void applyValidators(BlockUrlProvider blockUrlProvider) {
+            if (validators != null) {
+                validators.applyTo(blockUrlProvider);
+            }
+        }
+    }
+
+    private static class Validators {
+        private final String etag;
+        private final String lastModified;
+
+        Validators(String etag, String lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        void applyTo(BlockUrlProvider blockUrlProvider) {
+            blockUrlProvider.etag = etag;
+            blockUrlProvider.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Copies everything read into a compressed temporary file,
+     * which replaces the cache file only if the stream has been read to the end.
+     */
+    private static class RawCacheInputStream extends FilterInputStream {
+        private final File cacheFile;
+        private final File tempFile;
+        private final OutputStream cacheStream;
+        private boolean complete;
+
+        RawCacheInputStream(InputStream in, File cacheFile) throws IOException {
+            super(in);
+            this.cacheFile = cacheFile;
+            this.tempFile = new File(cacheFile.getPath() + ".tmp");
+            this.cacheStream = new GZIPOutputStream(new FileOutputStream(tempFile));
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                complete = true;
+            } else {
+                cacheStream.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count == -1) {
+                complete = true;
+            } else {
+                cacheStream.write(b, off, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && read() != -1) {
+                skipped++;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                cacheStream.close();
+                if (!complete || !tempFile.renameTo(cacheFile)) {
+                    // A temporary file which cannot be deleted is overwritten by the next download
+                    //noinspection ResultOfMethodCallIgnored
+                    tempFile.delete();
+                }
+            }
+        }
+    }
+}
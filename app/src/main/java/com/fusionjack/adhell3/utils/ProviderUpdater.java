@@ -0,0 +1,119 @@
+package com.fusionjack.adhell3.utils;
+
+import android.support.annotation.Nullable;
+
+import com.fusionjack.adhell3.db.entity.BlockUrlProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updates providers concurrently: they are downloaded and parsed on several threads, but only one thread writes
+ * to the database. A fetched list waits for one of the pendingLists permits before it is handed to the writer,
+ * so at most threads + pendingLists parsed lists are held in memory at once.
+ */
+public class ProviderUpdater {
+
+    public interface Fetcher {
+        /**
+         * @return the urls of the provider, or null if the provider has not changed since the last update
+         */
+        @Nullable
+        ProviderDownloader.Result fetch(BlockUrlProvider provider) throws Exception;
+    }
+
+    public interface Saver {
+        /**
+         * Store the urls of the provider together with the validators of the result in one transaction
+         */
+        void save(BlockUrlProvider provider, ProviderDownloader.Result result) throws Exception;
+    }
+
+    public interface Listener {
+        void onNotModified(BlockUrlProvider provider);
+
+        void onSaved(BlockUrlProvider provider);
+
+        void onFailed(BlockUrlProvider provider, Exception e);
+    }
+
+    private final int threads;
+    private final int pendingLists;
+    private final Fetcher fetcher;
+    private final Saver saver;
+    private final Listener listener;
+
+    public ProviderUpdater(int threads, int pendingLists, Fetcher fetcher, Saver saver, Listener listener) {
+        this.threads = threads;
+        this.pendingLists = pendingLists;
+        this.fetcher = fetcher;
+        this.saver = saver;
+        this.listener = listener;
+    }
+
+    /**
+     * Update the given providers and wait until every list has been written.
+     * A provider which fails is reported to the listener and does not stop the others.
+     */
+    public void update(List<BlockUrlProvider> providers) throws InterruptedException, ExecutionException {
+        if (providers.isEmpty()) {
+            return;
+        }
+
+        ExecutorService fetchExecutor = Executors.newFixedThreadPool(Math.min(threads, providers.size()));
+        ExecutorService writeExecutor = Executors.newSingleThreadExecutor();
+        Semaphore pendingPermits = new Semaphore(pendingLists);
+        try {
+            List<Future<?>> fetches = new ArrayList<>();
+            for (BlockUrlProvider provider : providers) {
+                fetches.add(fetchExecutor.submit(() -> fetch(provider, writeExecutor, pendingPermits)));
+            }
+            for (Future<?> fetch : fetches) {
+                fetch.get();
+            }
+            writeExecutor.shutdown();
+            writeExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            fetchExecutor.shutdownNow();
+            writeExecutor.shutdown();
+        }
+    }
+
+    private void fetch(BlockUrlProvider provider, ExecutorService writeExecutor, Semaphore pendingPermits) {
+        ProviderDownloader.Result result;
+        try {
+            result = fetcher.fetch(provider);
+        } catch (Exception e) {
+            listener.onFailed(provider, e);
+            return;
+        }
+        if (result == null) {
+            listener.onNotModified(provider);
+            return;
+        }
+
+        // The download runs freely, only handing the parsed list over to the writer waits for room
+        try {
+            pendingPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        writeExecutor.execute(() -> {
+            try {
+                saver.save(provider, result);
+                listener.onSaved(provider);
+            } catch (Exception e) {
+                listener.onFailed(provider, e);
+            } finally {
+                pendingPermits.release();
+            }
+        });
+    }
+}
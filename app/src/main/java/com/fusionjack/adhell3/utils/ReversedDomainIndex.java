@@ -0,0 +1,106 @@
+package com.fusionjack.adhell3.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Removes deny entries which Knox would never need: entries covered by a broader deny entry
+ * (*example.com covers *ads.example.com) and entries covered by a global allow entry.
+ * Only entries of the form *domain take part, other wildcards are kept as they are.
+ * <p>
+ * The domains are reversed (moc.elpmaxe) and sorted, so that a domain directly follows its parent domains
+ * and the subdomains of a domain form one block. A single pass with a stack of the enclosing entries
+ * then finds the covered entries, without building a node per label.
+ */
+public final class ReversedDomainIndex {
+    private static final char WILDCARD = '*';
+
+    private ReversedDomainIndex() {
+    }
+
+    /**
+     * @param denyList  deny entries as sent to Knox, each entry only once
+     * @param allowList allow entries for all apps as sent to Knox
+     * @return the deny entries which are not covered by another deny entry or by an allow entry
+     */
+    public static List<String> minimize(Collection<String> denyList, Collection<String> allowList) {
+        List<String> result = new ArrayList<>();
+        List<Entry> entries = new ArrayList<>(denyList.size() + allowList.size());
+        for (String deny : denyList) {
+            if (isSuffixWildcard(deny)) {
+                entries.add(new Entry(deny, false));
+            } else {
+                result.add(deny);
+            }
+        }
+        for (String allow : allowList) {
+            if (isSuffixWildcard(allow)) {
+                entries.add(new Entry(allow, true));
+            }
+        }
+
+        Entry[] sortedEntries = entries.toArray(new Entry[0]);
+        Arrays.sort(sortedEntries);
+
+        // Enclosing entries of the current one, each entry is a parent domain of the entry above it
+        List<Entry> parents = new ArrayList<>();
+        for (Entry entry : sortedEntries) {
+            while (!parents.isEmpty() && !entry.reversed.startsWith(parents.get(parents.size() - 1).reversed)) {
+                parents.remove(parents.size() - 1);
+            }
+
+            boolean covered = false;
+            for (int i = parents.size() - 1; i >= 0; i--) {
+                if (entry.isCoveredBy(parents.get(i))) {
+                    covered = true;
+                    break;
+                }
+            }
+
+            if (entry.allow) {
+                parents.add(entry);
+            } else if (!covered) {
+                parents.add(entry);
+                result.add(entry.original);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isSuffixWildcard(String url) {
+        return url.length() > 1 && url.charAt(0) == WILDCARD && url.indexOf(WILDCARD, 1) == -1;
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        private final String original;
+        private final String reversed;
+        private final boolean allow;
+
+        Entry(String original, boolean allow) {
+            this.original = original;
+            this.reversed = new StringBuilder(original.length() - 1).append(original, 1, original.length()).reverse().toString();
+            this.allow = allow;
+        }
+
+        /**
+         * @return whether the parent entry matches the same domain or one of its parent domains
+         */
+        boolean isCoveredBy(Entry parent) {
+            int length = parent.reversed.length();
+            return reversed.startsWith(parent.reversed) &&
+                    (reversed.length() == length || reversed.charAt(length) == '.');
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int result = reversed.compareTo(other.reversed);
+            // An allow entry goes first, so that an equal deny entry counts as allowed
+            if (result != 0 || allow == other.allow) {
+                return result;
+            }
+            return allow ? -1 : 1;
+        }
+    }
+}
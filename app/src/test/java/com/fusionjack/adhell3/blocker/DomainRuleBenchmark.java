@@ -0,0 +1,94 @@
+package com.fusionjack.adhell3.blocker;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures enabling and disabling the domain rules against {@link InMemoryDomainRules} with a simulated Knox latency.
+ * The rules are sent like DomainRuleSync does: the deny list of all apps in chunks, the allowed domains of the
+ * whitelisted apps with one rule each. They are removed either chunk by chunk or with a single clear.
+ * The Knox types only exist as stubs off the device, so the benchmark works on the rules without them.
+ * The numbers are printed, only the resulting domain counts are checked.
+ */
+public class DomainRuleBenchmark {
+    // Assumed latency of a Knox call, the real values depend on the device
+    private static final long CALL_LATENCY_MILLIS = 10;
+    private static final long DOMAIN_LATENCY_MICROS = 5;
+    private static final int[] DOMAIN_COUNTS = {15000, 50000};
+    private static final int[] CHUNK_SIZES = {500, 5000, 20000};
+    private static final int WHITELISTED_APP_COUNT = 20;
+
+    @Test
+    public void enableAndDisable() {
+        for (int domainCount : DOMAIN_COUNTS) {
+            List<String> denyList = domains(domainCount);
+            for (int chunkSize : CHUNK_SIZES) {
+                InMemoryDomainRules domainRules = new InMemoryDomainRules();
+                domainRules.setCallLatency(CALL_LATENCY_MILLIS);
+                domainRules.setDomainLatency(DOMAIN_LATENCY_MICROS);
+
+                long enableMillis = enable(domainRules, denyList, chunkSize);
+                assertEquals(domainCount + WHITELISTED_APP_COUNT, domainRules.getDomainCount());
+                int enableCalls = domainRules.getCallCount();
+
+                long startTime = System.currentTimeMillis();
+                for (List<InMemoryDomainRules.Rule> chunk : chunks(denyList, chunkSize)) {
+                    domainRules.remove(chunk);
+                }
+                domainRules.remove(whitelistRules());
+                long disableMillis = System.currentTimeMillis() - startTime;
+                assertEquals(0, domainRules.getDomainCount());
+
+                enable(domainRules, denyList, chunkSize);
+                startTime = System.currentTimeMillis();
+                domainRules.clear();
+                long clearMillis = System.currentTimeMillis() - startTime;
+
+                System.out.println(domainCount + " domains in chunks of " + chunkSize + ": " +
+                        "enable " + enableMillis + " ms (" + enableCalls + " calls), " +
+                        "disable per chunk " + disableMillis + " ms, disable with clear " + clearMillis + " ms");
+            }
+        }
+    }
+
+    private static long enable(InMemoryDomainRules domainRules, List<String> denyList, int chunkSize) {
+        long startTime = System.currentTimeMillis();
+        for (List<InMemoryDomainRules.Rule> chunk : chunks(denyList, chunkSize)) {
+            domainRules.add(chunk);
+        }
+        domainRules.add(whitelistRules());
+        return System.currentTimeMillis() - startTime;
+    }
+
+    private static List<List<InMemoryDomainRules.Rule>> chunks(List<String> denyList, int chunkSize) {
+        List<List<InMemoryDomainRules.Rule>> chunks = new ArrayList<>();
+        for (int start = 0; start < denyList.size(); start += chunkSize) {
+            List<String> deny = new ArrayList<>(denyList.subList(start, Math.min(denyList.size(), start + chunkSize)));
+            chunks.add(Collections.singletonList(new InMemoryDomainRules.Rule(
+                    InMemoryDomainRules.ALL_PACKAGES, deny, new ArrayList<>())));
+        }
+        return chunks;
+    }
+
+    private static List<InMemoryDomainRules.Rule> whitelistRules() {
+        List<InMemoryDomainRules.Rule> rules = new ArrayList<>();
+        for (int i = 0; i < WHITELISTED_APP_COUNT; i++) {
+            rules.add(new InMemoryDomainRules.Rule("com.example.app" + i, new ArrayList<>(),
+                    new ArrayList<>(Collections.singletonList("*"))));
+        }
+        return rules;
+    }
+
+    private static List<String> domains(int count) {
+        List<String> domains = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            domains.add("*host" + i + ".example.com");
+        }
+        return domains;
+    }
+}
@@ -0,0 +1,211 @@
+package com.fusionjack.adhell3.blocker;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Domain rules of {@link InMemoryFirewallGateway}, kept without Knox types so that they can be used on a plain JVM.
+ * Each call can be delayed by a fixed latency plus a latency per domain, and the number of domains
+ * can be limited like on a device.
+ */
+class InMemoryDomainRules {
+    // Knox returns no domain rules when they contain more domains than this
+    static final int DEFAULT_RETURNED_DOMAIN_LIMIT = 15000;
+    // Firewall.FIREWALL_ALL_PACKAGES, the app identity of the rules for all apps and the request of every rule
+    static final String ALL_PACKAGES = "*";
+
+    private final Map<String, Set<String>> denyDomains = new LinkedHashMap<>();
+    private final Map<String, Set<String>> allowDomains = new LinkedHashMap<>();
+
+    private long callLatencyMillis;
+    private long domainLatencyMicros;
+    private int domainLimit = Integer.MAX_VALUE;
+    private int returnedDomainLimit = DEFAULT_RETURNED_DOMAIN_LIMIT;
+    private int callCount;
+    private long sentDomainCount;
+
+    /**
+     * Deny and allow list of one app
+     */
+    static class Rule {
+        final String packageName;
+        final List<String> denyList;
+        final List<String> allowList;
+
+        Rule(String packageName, List<String> denyList, List<String> allowList) {
+            this.packageName = packageName;
+            this.denyList = denyList;
+            this.allowList = allowList;
+        }
+    }
+
+    synchronized void setCallLatency(long millis) {
+        this.callLatencyMillis = millis;
+    }
+
+    synchronized void setDomainLatency(long micros) {
+        this.domainLatencyMicros = micros;
+    }
+
+    synchronized void setDomainLimit(int domainLimit) {
+        this.domainLimit = domainLimit;
+    }
+
+    synchronized void setReturnedDomainLimit(int returnedDomainLimit) {
+        this.returnedDomainLimit = returnedDomainLimit;
+    }
+
+    synchronized int getCallCount() {
+        return callCount;
+    }
+
+    synchronized long getSentDomainCount() {
+        return sentDomainCount;
+    }
+
+    /**
+     * @return the number of domains in all rules
+     */
+    synchronized int getDomainCount() {
+        return count(denyDomains) + count(allowDomains);
+    }
+
+    /**
+     * @return false without adding any rule if the domains of all rules would exceed the limit
+     */
+    synchronized boolean add(List<Rule> rules) {
+        int domainCount = count(rules);
+        call(domainCount);
+
+        if ((long) getDomainCount() + domainCount > domainLimit) {
+            return false;
+        }
+        for (Rule rule : rules) {
+            getDomains(denyDomains, rule.packageName).addAll(rule.denyList);
+            getDomains(allowDomains, rule.packageName).addAll(rule.allowList);
+        }
+        return true;
+    }
+
+    /**
+     * Remove the domains of the rules, a rule without domains removes every domain of the app
+     */
+    synchronized void remove(List<Rule> rules) {
+        call(count(rules));
+
+        for (Rule rule : rules) {
+            if (rule.denyList.isEmpty() && rule.allowList.isEmpty()) {
+                denyDomains.remove(rule.packageName);
+                allowDomains.remove(rule.packageName);
+            } else {
+                removeDomains(getDomains(denyDomains, rule.packageName), rule.denyList);
+                removeDomains(getDomains(allowDomains, rule.packageName), rule.allowList);
+            }
+        }
+        removeEmpty(denyDomains);
+        removeEmpty(allowDomains);
+    }
+
+    synchronized void clear() {
+        call(0);
+        denyDomains.clear();
+        allowDomains.clear();
+    }
+
+    /**
+     * Like Knox, requesting ALL_PACKAGES returns the rules of every app, starting with the rules for all apps
+     *
+     * @return the rules of the apps which have any, null if their domains exceed the returned domain limit
+     */
+    synchronized List<Rule> get(List<String> packageNames) {
+        call(0);
+
+        Set<String> requestedPackages = new LinkedHashSet<>(packageNames);
+        if (requestedPackages.contains(ALL_PACKAGES)) {
+            requestedPackages.addAll(denyDomains.keySet());
+            requestedPackages.addAll(allowDomains.keySet());
+        }
+
+        List<Rule> rules = new ArrayList<>();
+        int domainCount = 0;
+        for (String packageName : requestedPackages) {
+            Set<String> deny = denyDomains.get(packageName);
+            Set<String> allow = allowDomains.get(packageName);
+            if (deny == null && allow == null) {
+                continue;
+            }
+            List<String> denyList = deny == null ? new ArrayList<>() : new ArrayList<>(deny);
+            List<String> allowList = allow == null ? new ArrayList<>() : new ArrayList<>(allow);
+            domainCount += denyList.size() + allowList.size();
+            if (domainCount > returnedDomainLimit) {
+                return null;
+            }
+            rules.add(new Rule(packageName, denyList, allowList));
+        }
+        return rules;
+    }
+
+    /**
+     * Count a call with the given number of sent domains and delay it by the configured latency
+     */
+    synchronized void call(int domainCount) {
+        callCount++;
+        sentDomainCount += domainCount;
+        long latencyMicros = callLatencyMillis * 1000 + domainCount * domainLatencyMicros;
+        if (latencyMicros > 0) {
+            try {
+                Thread.sleep(latencyMicros / 1000, (int) (latencyMicros % 1000) * 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static int count(List<Rule> rules) {
+        int domainCount = 0;
+        for (Rule rule : rules) {
+            domainCount += rule.denyList.size() + rule.allowList.size();
+        }
+        return domainCount;
+    }
+
+    private static Set<String> getDomains(Map<String, Set<String>> domains, String packageName) {
+        Set<String> packageDomains = domains.get(packageName);
+        if (packageDomains == null) {
+            packageDomains = new LinkedHashSet<>();
+            domains.put(packageName, packageDomains);
+        }
+        return packageDomains;
+    }
+
+    /**
+     * Set.removeAll() iterates over the set when it is larger and looks each domain up in the list
+     */
+    private static void removeDomains(Set<String> packageDomains, List<String> domains) {
+        for (String domain : domains) {
+            packageDomains.remove(domain);
+        }
+    }
+
+    private static void removeEmpty(Map<String, Set<String>> domains) {
+        Iterator<Set<String>> iterator = domains.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static int count(Map<String, Set<String>> domains) {
+        int count = 0;
+        for (Set<String> packageDomains : domains.values()) {
+            count += packageDomains.size();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,139 @@
+package com.fusionjack.adhell3.blocker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryDomainRulesTest {
+    private InMemoryDomainRules domainRules;
+
+    @Before
+    public void setUp() {
+        domainRules = new InMemoryDomainRules();
+    }
+
+    @Test
+    public void addMergesTheDomainsPerApp() {
+        assertTrue(domainRules.add(rules(rule("*", deny("a.com", "b.com"), allow()))));
+        assertTrue(domainRules.add(rules(rule("*", deny("b.com", "c.com"), allow("d.com")))));
+
+        List<InMemoryDomainRules.Rule> rules = domainRules.get(Collections.singletonList("*"));
+        assertEquals(1, rules.size());
+        assertEquals(deny("a.com", "b.com", "c.com"), rules.get(0).denyList);
+        assertEquals(allow("d.com"), rules.get(0).allowList);
+        assertEquals(4, domainRules.getDomainCount());
+    }
+
+    @Test
+    public void addFailsWithoutChangesWhenTheDomainLimitIsExceeded() {
+        domainRules.setDomainLimit(3);
+        assertTrue(domainRules.add(rules(rule("*", deny("a.com", "b.com"), allow()))));
+
+        assertFalse(domainRules.add(rules(
+                rule("*", deny("c.com"), allow()),
+                rule("com.example", deny("d.com"), allow()))));
+        assertEquals(2, domainRules.getDomainCount());
+        assertTrue(domainRules.get(Collections.singletonList("com.example")).isEmpty());
+    }
+
+    @Test
+    public void removeDropsTheGivenDomainsAndEmptyApps() {
+        domainRules.add(rules(
+                rule("*", deny("a.com", "b.com"), allow()),
+                rule("com.example", deny(), allow("*"))));
+
+        domainRules.remove(rules(
+                rule("*", deny("a.com"), allow()),
+                rule("com.example", deny(), allow("*"))));
+
+        List<InMemoryDomainRules.Rule> rules = domainRules.get(Collections.singletonList("com.example"));
+        assertTrue(rules.isEmpty());
+        rules = domainRules.get(Collections.singletonList("*"));
+        assertEquals(1, rules.size());
+        assertEquals("*", rules.get(0).packageName);
+        assertEquals(deny("b.com"), rules.get(0).denyList);
+    }
+
+    @Test
+    public void removeWithoutDomainsDropsEveryDomainOfTheApp() {
+        domainRules.add(rules(rule("com.example", deny("a.com"), allow("b.com"))));
+
+        domainRules.remove(rules(rule("com.example", deny(), allow())));
+
+        assertEquals(0, domainRules.getDomainCount());
+    }
+
+    @Test
+    public void getReturnsNullWhenTheReturnedDomainLimitIsExceeded() {
+        domainRules.setReturnedDomainLimit(2);
+        domainRules.add(rules(
+                rule("*", deny("a.com", "b.com"), allow()),
+                rule("com.example", deny("c.com"), allow())));
+
+        assertEquals(1, domainRules.get(Collections.singletonList("com.example")).size());
+        assertNull(domainRules.get(Collections.singletonList("*")));
+    }
+
+    @Test
+    public void allPackagesReturnsTheRulesOfEveryApp() {
+        domainRules.add(rules(
+                rule("com.example", deny(), allow("a.com")),
+                rule("*", deny("b.com"), allow())));
+
+        List<InMemoryDomainRules.Rule> rules = domainRules.get(Collections.singletonList("*"));
+        assertEquals(2, rules.size());
+        assertEquals("*", rules.get(0).packageName);
+        assertEquals(deny("b.com"), rules.get(0).denyList);
+        assertEquals("com.example", rules.get(1).packageName);
+        assertEquals(allow("a.com"), rules.get(1).allowList);
+
+        rules = domainRules.get(Collections.singletonList("com.example"));
+        assertEquals(1, rules.size());
+        assertEquals("com.example", rules.get(0).packageName);
+    }
+
+    @Test
+    public void clearDropsAllRules() {
+        domainRules.add(rules(rule("*", deny("a.com"), allow("b.com"))));
+
+        domainRules.clear();
+
+        assertEquals(0, domainRules.getDomainCount());
+        assertTrue(domainRules.get(Collections.singletonList("*")).isEmpty());
+    }
+
+    @Test
+    public void callsAndSentDomainsAreCounted() {
+        domainRules.add(rules(rule("*", deny("a.com", "b.com"), allow("c.com"))));
+        domainRules.remove(rules(rule("*", deny("a.com"), allow())));
+        domainRules.get(Collections.singletonList("*"));
+
+        assertEquals(3, domainRules.getCallCount());
+        assertEquals(4, domainRules.getSentDomainCount());
+    }
+
+    private static InMemoryDomainRules.Rule rule(String packageName, List<String> denyList, List<String> allowList) {
+        return new InMemoryDomainRules.Rule(packageName, denyList, allowList);
+    }
+
+    private static List<InMemoryDomainRules.Rule> rules(InMemoryDomainRules.Rule... rules) {
+        return Arrays.asList(rules);
+    }
+
+    private static List<String> deny(String... domains) {
+        return new ArrayList<>(Arrays.asList(domains));
+    }
+
+    private static List<String> allow(String... domains) {
+        return new ArrayList<>(Arrays.asList(domains));
+    }
+}
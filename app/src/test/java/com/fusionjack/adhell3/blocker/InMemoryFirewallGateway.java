@@ -0,0 +1,219 @@
+package com.fusionjack.adhell3.blocker;
+
+import com.sec.enterprise.AppIdentity;
+import com.sec.enterprise.firewall.DomainFilterReport;
+import com.sec.enterprise.firewall.DomainFilterRule;
+import com.sec.enterprise.firewall.Firewall;
+import com.sec.enterprise.firewall.FirewallResponse;
+import com.sec.enterprise.firewall.FirewallRule;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Keeps the rules in memory instead of Knox, to measure the rule building without a device.
+ * The domain rules are kept by {@link InMemoryDomainRules}, which also simulates the latency and the limits.
+ */
+public class InMemoryFirewallGateway implements FirewallGateway {
+    // Knox returns no domain rules when they contain more domains than this
+    public static final int DEFAULT_RETURNED_DOMAIN_LIMIT = InMemoryDomainRules.DEFAULT_RETURNED_DOMAIN_LIMIT;
+
+    private final InMemoryDomainRules domainRules = new InMemoryDomainRules();
+    private final List<FirewallRule> rules = new ArrayList<>();
+    private final List<DomainFilterReport> reports = new ArrayList<>();
+    private boolean firewallEnabled;
+    private boolean reportEnabled;
+
+    public InMemoryFirewallGateway setCallLatency(long millis) {
+        domainRules.setCallLatency(millis);
+        return this;
+    }
+
+    public InMemoryFirewallGateway setDomainLatency(long micros) {
+        domainRules.setDomainLatency(micros);
+        return this;
+    }
+
+    /**
+     * Adding domain rules fails if the domains of all rules would exceed the limit
+     */
+    public InMemoryFirewallGateway setDomainLimit(int domainLimit) {
+        domainRules.setDomainLimit(domainLimit);
+        return this;
+    }
+
+    /**
+     * Getting domain rules returns null if the domains of the requested rules exceed the limit
+     */
+    public InMemoryFirewallGateway setReturnedDomainLimit(int returnedDomainLimit) {
+        domainRules.setReturnedDomainLimit(returnedDomainLimit);
+        return this;
+    }
+
+    public synchronized void addDomainFilterReport(DomainFilterReport report) {
+        reports.add(report);
+    }
+
+    /**
+     * @return the number of calls which have been made to this gateway
+     */
+    public int getCallCount() {
+        return domainRules.getCallCount();
+    }
+
+    /**
+     * @return the number of domains which have been sent to add or remove domain rules
+     */
+    public long getSentDomainCount() {
+        return domainRules.getSentDomainCount();
+    }
+
+    /**
+     * @return the number of domains in all domain rules
+     */
+    public int getDomainCount() {
+        return domainRules.getDomainCount();
+    }
+
+    @Override
+    public synchronized boolean isFirewallEnabled() {
+        domainRules.call(0);
+        return firewallEnabled;
+    }
+
+    @Override
+    public synchronized FirewallResponse[] enableFirewall(boolean enable) {
+        domainRules.call(0);
+        firewallEnabled = enable;
+        return success("Firewall is " + (enable ? "enabled" : "disabled"));
+    }
+
+    @Override
+    public synchronized boolean isDomainFilterReportEnabled() {
+        domainRules.call(0);
+        return reportEnabled;
+    }
+
+    @Override
+    public synchronized boolean enableDomainFilterReport(boolean enable) {
+        domainRules.call(0);
+        reportEnabled = enable;
+        return true;
+    }
+
+    @Override
+    public FirewallResponse[] addDomainFilterRules(List<DomainFilterRule> rules) {
+        if (!domainRules.add(toRules(rules))) {
+            return failure("Domain limit is exceeded");
+        }
+        return success(rules.size() + " domain rule(s) added");
+    }
+
+    @Override
+    public FirewallResponse[] removeDomainFilterRules(List<DomainFilterRule> rules) {
+        if (rules == DomainFilterRule.CLEAR_ALL) {
+            domainRules.clear();
+            return success("All domain rules removed");
+        }
+        domainRules.remove(toRules(rules));
+        return success(rules.size() + " domain rule(s) removed");
+    }
+
+    @Override
+    public List<DomainFilterRule> getDomainFilterRules(List<String> packageNames) {
+        List<InMemoryDomainRules.Rule> packageRules = domainRules.get(packageNames);
+        if (packageRules == null) {
+            return null;
+        }
+        List<DomainFilterRule> result = new ArrayList<>(packageRules.size());
+        for (InMemoryDomainRules.Rule rule : packageRules) {
+            result.add(new DomainFilterRule(new AppIdentity(rule.packageName, null), rule.denyList, rule.allowList));
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized FirewallResponse[] addRules(FirewallRule[] firewallRules) {
+        domainRules.call(0);
+        FirewallResponse[] responses = new FirewallResponse[firewallRules.length];
+        for (int i = 0; i < firewallRules.length; i++) {
+            rules.add(firewallRules[i]);
+            responses[i] = new FirewallResponse(FirewallResponse.Result.SUCCESS,
+                    FirewallResponse.ErrorCode.NO_ERROR, "Rule added");
+        }
+        return responses;
+    }
+
+    @Override
+    public synchronized FirewallRule[] getRules(int ruleType, FirewallRule.Status status) {
+        domainRules.call(0);
+
+        // Every stored rule counts as enabled
+        List<FirewallRule> result = new ArrayList<>();
+        if (status == null || status == FirewallRule.Status.ENABLED) {
+            for (FirewallRule rule : rules) {
+                if ((getRuleTypeFlag(rule) & ruleType) != 0) {
+                    result.add(rule);
+                }
+            }
+        }
+        return result.toArray(new FirewallRule[0]);
+    }
+
+    @Override
+    public synchronized FirewallResponse[] clearRules(int ruleType) {
+        domainRules.call(0);
+        Iterator<FirewallRule> iterator = rules.iterator();
+        while (iterator.hasNext()) {
+            if ((getRuleTypeFlag(iterator.next()) & ruleType) != 0) {
+                iterator.remove();
+            }
+        }
+        return success("Rules cleared");
+    }
+
+    @Override
+    public synchronized List<DomainFilterReport> getDomainFilterReport(List<String> packageNames) {
+        domainRules.call(0);
+        List<DomainFilterReport> result = new ArrayList<>();
+        for (DomainFilterReport report : reports) {
+            if (packageNames == null || packageNames.contains(report.getPackageName())) {
+                result.add(report);
+            }
+        }
+        return result;
+    }
+
+    private static List<InMemoryDomainRules.Rule> toRules(List<DomainFilterRule> rules) {
+        List<InMemoryDomainRules.Rule> result = new ArrayList<>(rules.size());
+        for (DomainFilterRule rule : rules) {
+            result.add(new InMemoryDomainRules.Rule(rule.getApplication().getPackageName(),
+                    rule.getDenyDomains(), rule.getAllowDomains()));
+        }
+        return result;
+    }
+
+    private static int getRuleTypeFlag(FirewallRule rule) {
+        switch (rule.getRuleType()) {
+            case ALLOW:
+                return Firewall.FIREWALL_ALLOW_RULE;
+            case DENY:
+                return Firewall.FIREWALL_DENY_RULE;
+            case REDIRECT:
+                return Firewall.FIREWALL_REDIRECT_RULE;
+            default:
+                return Firewall.FIREWALL_REDIRECT_EXCEPTION_RULE;
+        }
+    }
+
+    private static FirewallResponse[] success(String message) {
+        return new FirewallResponse[]{new FirewallResponse(FirewallResponse.Result.SUCCESS,
+                FirewallResponse.ErrorCode.NO_ERROR, message)};
+    }
+
+    private static FirewallResponse[] failure(String message) {
+        return new FirewallResponse[]{new FirewallResponse(FirewallResponse.Result.FAILED,
+                FirewallResponse.ErrorCode.OPERATION_NOT_PERMITTED_ERROR, message)};
+    }
+}
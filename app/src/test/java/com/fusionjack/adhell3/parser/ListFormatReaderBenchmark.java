@@ -0,0 +1,153 @@
+package com.fusionjack.adhell3.parser;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the throughput and the peak heap of streaming a large generated hosts file through
+ * ListFormatReader with the former loading, which built the whole file as a string and matched it with
+ * regular expressions. The peak heap is sampled and includes garbage which is not collected yet.
+ * The numbers are printed, only the number of domains is checked.
+ */
+public class ListFormatReaderBenchmark {
+    private static final int LINE_COUNT = 500000;
+    private static final int COMMENT_INTERVAL = 50;
+    private static final long SAMPLE_MILLIS = 1;
+
+    // The regular expressions of the former loading
+    private static final Pattern WILDCARD_PATTERN = Pattern.compile("(?im)^(([*])([A-Z0-9-_.]+))$|^(([A-Z0-9-_.]+)([*]))$|^(([*])([A-Z0-9-_.]+)([*])$)");
+    private static final Pattern DOMAIN_PATTERN = Pattern.compile("(?im)(?=^.{4,253}$)(^((?!-)[a-z0-9-]{1,63}(?<!-)\\.)+[a-z]{2,63}$)");
+
+    private interface Loader {
+        int load(BufferedReader reader) throws IOException;
+    }
+
+    @Test
+    public void hostsFile() throws Exception {
+        int formerCount = measure("former", ListFormatReaderBenchmark::loadFormer);
+        int streamedCount = measure("streamed", ListFormatReaderBenchmark::loadStreamed);
+        assertEquals(formerCount, streamedCount);
+    }
+
+    /**
+     * The reader and the parser of the list, the domains are counted instead of written
+     */
+    private static int loadStreamed(BufferedReader reader) throws IOException {
+        int count = 0;
+        try (ListFormatReader listFormatReader = new ListFormatReader(reader, null)) {
+            while (listFormatReader.readDomain() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The former BlockUrlUtils.loadBlockUrls, with strings instead of BlockUrl entities
+     */
+    private static int loadFormer(BufferedReader reader) throws IOException {
+        StringBuilder hostFile = new StringBuilder();
+        String inputLine;
+        while ((inputLine = reader.readLine()) != null) {
+            hostFile.append(inputLine.trim().toLowerCase()
+                    .replace("127.0.0.1", "")
+                    .replace("0.0.0.0", "")
+                    .replaceAll("\\s", "")
+                    .replaceAll("(#.*)|((\\s)+#.*)", "")
+                    .replaceAll("^(www)([0-9]{0,3})?(\\.)", ""));
+            hostFile.append("\n");
+        }
+        reader.close();
+
+        String hostFileStr = hostFile.toString();
+        StringBuilder validDomains = new StringBuilder();
+        Matcher domainMatcher = DOMAIN_PATTERN.matcher(hostFileStr);
+        while (domainMatcher.find()) {
+            validDomains.append(domainMatcher.group()).append("\n");
+        }
+        Matcher wildcardMatcher = WILDCARD_PATTERN.matcher(hostFileStr);
+        while (wildcardMatcher.find()) {
+            validDomains.append(wildcardMatcher.group()).append("\n");
+        }
+
+        List<String> blockUrls = new ArrayList<>();
+        for (String domain : validDomains.toString().split("\n")) {
+            blockUrls.add(domain);
+        }
+        return blockUrls.size();
+    }
+
+    private static int measure(String name, Loader loader) throws Exception {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long baseHeap = runtime.totalMemory() - runtime.freeMemory();
+
+        HeapSampler sampler = new HeapSampler();
+        sampler.start();
+        long startTime = System.nanoTime();
+        int count;
+        try {
+            count = loader.load(hostsFile(LINE_COUNT));
+        } finally {
+            sampler.interrupt();
+            sampler.join();
+        }
+        long nanos = System.nanoTime() - startTime;
+
+        System.out.println(name + ": " + count + " domains from " + LINE_COUNT + " lines in " + nanos / 1000000 + " ms, " +
+                (LINE_COUNT * 1000000000L / Math.max(1, nanos)) + " lines/s, " +
+                "peak heap +" + Math.max(0, sampler.peakHeap - baseHeap) / (1024 * 1024) + " MB");
+        return count;
+    }
+
+    /**
+     * A generated hosts file which is produced while it is read, like a download
+     */
+    private static BufferedReader hostsFile(int lineCount) {
+        return new BufferedReader(new StringReader("")) {
+            private int count;
+
+            @Override
+            public String readLine() {
+                if (count == lineCount) {
+                    return null;
+                }
+                count++;
+                if (count % COMMENT_INTERVAL == 0) {
+                    return "# Section " + count;
+                }
+                return (count % 3 == 0 ? "127.0.0.1 www." : "0.0.0.0 ") + "host" + count + ".example.com";
+            }
+        };
+    }
+
+    private static class HeapSampler extends Thread {
+        private volatile long peakHeap;
+
+        HeapSampler() {
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            Runtime runtime = Runtime.getRuntime();
+            while (!isInterrupted()) {
+                peakHeap = Math.max(peakHeap, runtime.totalMemory() - runtime.freeMemory());
+                try {
+                    Thread.sleep(SAMPLE_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
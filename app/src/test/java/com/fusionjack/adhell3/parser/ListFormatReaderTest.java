@@ -0,0 +1,53 @@
+package com.fusionjack.adhell3.parser;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ListFormatReaderTest {
+    private static final String MIXED_LIST = "# Mostly plain domains\n" +
+            "first.com\n" +
+            "second.com\n" +
+            "0.0.0.0 third.com\n" +
+            "||fourth.com^\n";
+
+    @Test
+    public void detectedFormatOnly() throws IOException {
+        ListFormatReader reader = reader(MIXED_LIST, null);
+        assertEquals(Arrays.asList("first.com", "second.com"), readAll(reader));
+        assertEquals(PlainFormatParser.FORMAT, reader.getFormat());
+    }
+
+    @Test
+    public void overriddenFormatOnly() throws IOException {
+        ListFormatReader reader = reader(MIXED_LIST, HostsFormatParser.FORMAT);
+        assertEquals(Arrays.asList("third.com"), readAll(reader));
+    }
+
+    @Test
+    public void autoFormatTriesEveryParser() throws IOException {
+        ListFormatReader reader = reader(MIXED_LIST, AutoFormatParser.FORMAT);
+        assertEquals(Arrays.asList("first.com", "second.com", "third.com", "fourth.com"), readAll(reader));
+        assertEquals(AutoFormatParser.FORMAT, reader.getFormat());
+    }
+
+    private static ListFormatReader reader(String list, String format) {
+        return new ListFormatReader(new BufferedReader(new StringReader(list)), format);
+    }
+
+    private static List<String> readAll(ListFormatReader reader) throws IOException {
+        List<String> domains = new ArrayList<>();
+        String domain;
+        while ((domain = reader.readDomain()) != null) {
+            domains.add(domain);
+        }
+        return domains;
+    }
+}
@@ -0,0 +1,82 @@
+package com.fusionjack.adhell3.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the lines per second of the single-pass validators with the former regular expressions.
+ * The numbers are printed, only the number of accepted lines is checked.
+ */
+public class BlockUrlPatternsMatchBenchmark {
+    private static final int LINE_COUNT = 200000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    private interface Validator {
+        boolean isValid(String line);
+    }
+
+    @Test
+    public void urlLinesPerSecond() {
+        List<String> lines = BlockUrlPatternsMatchTest.randomLines(new Random(42), LINE_COUNT);
+        compare("url", lines,
+                BlockUrlPatternsMatchTest::referenceUrlValid,
+                BlockUrlPatternsMatch::isUrlValid);
+    }
+
+    @Test
+    public void filterLinesPerSecond() {
+        List<String> lines = BlockUrlPatternsMatchTest.randomLines(new Random(42), LINE_COUNT);
+        for (int i = 0; i < lines.size(); i++) {
+            lines.set(i, "||" + lines.get(i) + "^");
+        }
+        compare("filter", lines,
+                line -> BlockUrlPatternsMatchTest.referenceFilterDomain(line) != null,
+                line -> BlockUrlPatternsMatch.getFilterDomain(line) != null);
+    }
+
+    private static void compare(String name, List<String> lines, Validator reference, Validator validator) {
+        int referenceCount = 0;
+        int validatorCount = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            referenceCount = count(lines, reference);
+            validatorCount = count(lines, validator);
+        }
+        assertEquals(referenceCount, validatorCount);
+
+        long referenceNanos = 0;
+        long validatorNanos = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            long startTime = System.nanoTime();
+            count(lines, reference);
+            referenceNanos += System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            count(lines, validator);
+            validatorNanos += System.nanoTime() - startTime;
+        }
+
+        long lineCount = (long) lines.size() * ROUNDS;
+        System.out.println(name + ": " + validatorCount + " of " + lines.size() + " lines valid, " +
+                "regex " + linesPerSecond(lineCount, referenceNanos) + " lines/s, " +
+                "single-pass " + linesPerSecond(lineCount, validatorNanos) + " lines/s");
+    }
+
+    private static int count(List<String> lines, Validator validator) {
+        int count = 0;
+        for (String line : lines) {
+            if (validator.isValid(line)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long linesPerSecond(long lineCount, long nanos) {
+        return lineCount * 1000000000L / Math.max(1, nanos);
+    }
+}
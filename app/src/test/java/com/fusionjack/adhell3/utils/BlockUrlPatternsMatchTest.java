@@ -0,0 +1,156 @@
+package com.fusionjack.adhell3.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the single-pass validators accept exactly what the former regular expressions accepted
+ */
+public class BlockUrlPatternsMatchTest {
+    // The regular expressions which were used before the single-pass validators, kept as reference
+    static final Pattern WILDCARD_REFERENCE = Pattern.compile("(?im)^(([*])([A-Z0-9-_.]+))$|^(([A-Z0-9-_.]+)([*]))$|^(([*])([A-Z0-9-_.]+)([*])$)");
+    static final Pattern DOMAIN_REFERENCE = Pattern.compile("(?im)(?=^.{4,253}$)(^((?!-)[a-z0-9-]{1,63}(?<!-)\\.)+[a-z]{2,63}$)");
+    static final Pattern FILTER_REFERENCE = Pattern.compile("(?im)(?=.{4,253}\\^)((?<=^[|]{2})(((?!-)[a-z0-9-]{1,63}(?<!-)\\.)+[a-z]{2,63})(?=\\^([$]third-party)?$))");
+
+    private static final String LABEL_63 = repeat('a', 63);
+    private static final String LABEL_64 = repeat('a', 64);
+    private static final int RANDOM_LINE_COUNT = 200000;
+    private static final String RANDOM_ALPHABET = "abcXYZ09-_.*|^$/ ";
+
+    private static final List<String> DOMAINS = Arrays.asList(
+            "", "a", "a.b", "a.bc", "ab.c", "abc", "a.b.c", "example.com", "EXAMPLE.COM", "Sub.Example.Org",
+            "www.example.co.uk", "1.2.3.4", "123.com", "example.c0m", "example.123", "example.c", "exa_mple.com",
+            "-example.com", "example-.com", "ex-ample.com", "ex--ample.com", "a-.b.com", "a.-b.com", "a.b-.com",
+            "example..com", ".example.com", "example.com.", "example.com-", "exa mple.com", "example.com ",
+            " example.com", "example.com/path", "http://example.com", "ex\u00e4mple.com", "example.co-m",
+            LABEL_63 + ".com", LABEL_64 + ".com", "a." + LABEL_63, "a." + LABEL_64, "a." + repeat('b', 62) + "1",
+            // The whole domain must have between 4 and 253 characters
+            "a.bc", "a.b", domainOfLength(253), domainOfLength(254), domainOfLength(252));
+
+    private static final List<String> WILDCARDS = Arrays.asList(
+            "*", "**", "***", "*a", "a*", "*a*", "**a", "a**", "*a*b", "a*b", "*.example.com", "example.*",
+            "*example*", "*Example.COM", "*exa_mple-1.com", "*exa mple", "*exa/mple", "*exa@mple", "*exa^mple",
+            "*exa:mple", "*exa[mple", "*ex\u00e4", "*.", "*-*", "*" + repeat('a', 300));
+
+    private static final List<String> FILTERS = Arrays.asList(
+            "", "||", "||^", "||a.bc^", "||a.b^", "||example.com^", "||EXAMPLE.com^", "||example.com",
+            "|example.com^", "example.com^", "||example.com^$third-party", "||example.com^$THIRD-PARTY",
+            "||example.com^$third-party,image", "||example.com^$image", "||example.com^^", "||example.com^|",
+            "|||example.com^", "||-example.com^", "||example-.com^", "||exa_mple.com^", "||example.c0m^",
+            "||*.example.com^", "||example.com/path^", " ||example.com^", "||example.com^ ", "||" + LABEL_64 + ".com^",
+            "||" + domainOfLength(253) + "^", "||" + domainOfLength(254) + "^",
+            "||" + domainOfLength(253) + "^$third-party", "||" + domainOfLength(254) + "^$third-party");
+
+    @Test
+    public void domainsMatchReference() {
+        for (String domain : DOMAINS) {
+            assertEquals(domain, DOMAIN_REFERENCE.matcher(domain).matches(), BlockUrlPatternsMatch.isDomainValid(domain));
+            assertEquals(domain, referenceUrlValid(domain), BlockUrlPatternsMatch.isUrlValid(domain));
+        }
+    }
+
+    @Test
+    public void wildcardsMatchReference() {
+        for (String wildcard : WILDCARDS) {
+            assertEquals(wildcard, WILDCARD_REFERENCE.matcher(wildcard).matches(), BlockUrlPatternsMatch.isWildcardValid(wildcard));
+            assertEquals(wildcard, referenceUrlValid(wildcard), BlockUrlPatternsMatch.isUrlValid(wildcard));
+        }
+    }
+
+    @Test
+    public void filtersMatchReference() {
+        for (String filter : FILTERS) {
+            assertEquals(filter, referenceFilterDomain(filter), BlockUrlPatternsMatch.getFilterDomain(filter));
+        }
+    }
+
+    @Test
+    public void edgeCases() {
+        assertTrue(BlockUrlPatternsMatch.isDomainValid("a.bc"));
+        assertFalse(BlockUrlPatternsMatch.isDomainValid("a.b"));
+        assertTrue(BlockUrlPatternsMatch.isDomainValid(domainOfLength(253)));
+        assertFalse(BlockUrlPatternsMatch.isDomainValid(domainOfLength(254)));
+        assertTrue(BlockUrlPatternsMatch.isDomainValid(LABEL_63 + ".com"));
+        assertFalse(BlockUrlPatternsMatch.isDomainValid(LABEL_64 + ".com"));
+        assertFalse(BlockUrlPatternsMatch.isDomainValid("-example.com"));
+        assertFalse(BlockUrlPatternsMatch.isDomainValid("example-.com"));
+        assertTrue(BlockUrlPatternsMatch.isWildcardValid("*a*"));
+        assertFalse(BlockUrlPatternsMatch.isWildcardValid("**"));
+        assertEquals("example.com", BlockUrlPatternsMatch.getFilterDomain("||example.com^$third-party"));
+        assertNull(BlockUrlPatternsMatch.getFilterDomain("||example.com^$image"));
+    }
+
+    @Test
+    public void randomLinesMatchReference() {
+        for (String line : randomLines(new Random(42), RANDOM_LINE_COUNT)) {
+            assertEquals(line, referenceUrlValid(line), BlockUrlPatternsMatch.isUrlValid(line));
+            assertEquals(line, referenceFilterDomain("||" + line + "^"), BlockUrlPatternsMatch.getFilterDomain("||" + line + "^"));
+        }
+    }
+
+    static boolean referenceUrlValid(String url) {
+        if (url.contains("*")) {
+            return WILDCARD_REFERENCE.matcher(url).matches();
+        }
+        return DOMAIN_REFERENCE.matcher(url).matches();
+    }
+
+    static String referenceFilterDomain(String line) {
+        Matcher matcher = FILTER_REFERENCE.matcher(line);
+        return matcher.find() ? matcher.group() : null;
+    }
+
+    /**
+     * @return short lines of domain-like characters, most of them valid domains or wildcards
+     */
+    static List<String> randomLines(Random random, int count) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder line = new StringBuilder();
+            int labelCount = 1 + random.nextInt(4);
+            for (int label = 0; label < labelCount; label++) {
+                if (label > 0) {
+                    line.append('.');
+                }
+                int labelLength = 1 + random.nextInt(12);
+                for (int j = 0; j < labelLength; j++) {
+                    line.append(random.nextInt(10) == 0
+                            ? RANDOM_ALPHABET.charAt(random.nextInt(RANDOM_ALPHABET.length()))
+                            : (char) ('a' + random.nextInt(26)));
+                }
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * @return a valid domain of the given length with a top level domain of 2 characters
+     */
+    private static String domainOfLength(int length) {
+        StringBuilder domain = new StringBuilder();
+        int remaining = length;
+        while (remaining > 66) {
+            domain.append(repeat('a', 62)).append('.');
+            remaining -= 63;
+        }
+        return domain.append(repeat('a', remaining - 3)).append(".bb").toString();
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
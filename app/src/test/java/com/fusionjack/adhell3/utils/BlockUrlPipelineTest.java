@@ -0,0 +1,100 @@
+package com.fusionjack.adhell3.utils;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BlockUrlPipelineTest {
+    private static final int LINE_COUNT = 200000;
+    private static final long QUEUE_FILL_MILLIS = 500;
+    private static final long THREAD_TIMEOUT_MILLIS = 5000;
+
+    @Test
+    public void writesEveryValidDomain() throws Exception {
+        List<String> domains = new ArrayList<>();
+        BlockUrlPipeline.Stats stats = new BlockUrlPipeline(hostsFile(LINE_COUNT), null).run(domains::add);
+
+        assertEquals(LINE_COUNT, domains.size());
+        assertEquals(LINE_COUNT, stats.getDomainCount());
+        assertEquals(LINE_COUNT, stats.getRowCount());
+        assertTrue(stats.getRowsPerSecond() > 0);
+        assertNoPipelineThreads();
+    }
+
+    @Test
+    public void failingWriterLeavesNoThreadBehind() throws Exception {
+        IOException writerFailure = new IOException("Disk full");
+        try {
+            // The reader and the parsers fill their queues and wait for room when the writer fails
+            new BlockUrlPipeline(hostsFile(LINE_COUNT), null).run(domain -> {
+                try {
+                    Thread.sleep(QUEUE_FILL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw writerFailure;
+            });
+            fail("The failure of the writer is not thrown");
+        } catch (IOException e) {
+            assertEquals(writerFailure, e);
+        }
+        assertNoPipelineThreads();
+    }
+
+    @Test
+    public void failingReaderIsThrownByRun() throws Exception {
+        IOException readerFailure = new IOException("Connection reset");
+        BufferedReader reader = new BufferedReader(new StringReader("")) {
+            private int count;
+
+            @Override
+            public String readLine() throws IOException {
+                if (++count > 5000) {
+                    throw readerFailure;
+                }
+                return "0.0.0.0 host" + count + ".example.com";
+            }
+        };
+        try {
+            new BlockUrlPipeline(reader, null).run(domain -> true);
+            fail("The failure of the reader is not thrown");
+        } catch (IOException e) {
+            assertEquals(readerFailure, e);
+        }
+        assertNoPipelineThreads();
+    }
+
+    private static BufferedReader hostsFile(int lineCount) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < lineCount; i++) {
+            builder.append("0.0.0.0 host").append(i).append(".example.com\n");
+        }
+        return new BufferedReader(new StringReader(builder.toString()));
+    }
+
+    private static void assertNoPipelineThreads() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + THREAD_TIMEOUT_MILLIS;
+        List<String> alive;
+        do {
+            alive = new ArrayList<>();
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().startsWith("BlockUrlPipeline-") && thread.isAlive()) {
+                    alive.add(thread.getName());
+                }
+            }
+            if (alive.isEmpty()) {
+                return;
+            }
+            Thread.sleep(50);
+        } while (System.currentTimeMillis() < deadline);
+        assertTrue("Pipeline threads are still alive: " + alive, alive.isEmpty());
+    }
+}
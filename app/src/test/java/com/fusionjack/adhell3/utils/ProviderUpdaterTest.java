@@ -0,0 +1,232 @@
+package com.fusionjack.adhell3.utils;
+
+import com.fusionjack.adhell3.db.entity.BlockUrlProvider;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Updates providers from a local http server which stands in for the provider hosts
+ */
+public class ProviderUpdaterTest {
+    private static final int PROVIDER_COUNT = 8;
+    private static final int DOMAIN_COUNT = 1000;
+    private static final int THREADS = 4;
+    private static final int PENDING_LISTS = 2;
+    private static final long RESPONSE_MILLIS = 200;
+    private static final long SAVE_MILLIS = 100;
+
+    private HttpServer server;
+    private File cacheDir;
+    private final AtomicInteger openRequests = new AtomicInteger();
+    private final AtomicInteger maxOpenRequests = new AtomicInteger();
+    private final AtomicInteger heldLists = new AtomicInteger();
+    private final AtomicInteger maxHeldLists = new AtomicInteger();
+    private final Map<Long, List<String>> savedUrls = new ConcurrentHashMap<>();
+    private final List<String> events = new ArrayList<>();
+    private volatile boolean failSaves;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            max(maxOpenRequests, openRequests.incrementAndGet());
+            try {
+                Thread.sleep(RESPONSE_MILLIS);
+                String path = exchange.getRequestURI().getPath();
+                String etag = "\"" + path + "\"";
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+                    return;
+                }
+                byte[] body = hostsFile(path).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(body);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                openRequests.decrementAndGet();
+                exchange.close();
+            }
+        });
+        server.start();
+        cacheDir = Files.createTempDirectory("providers").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        File[] cacheFiles = cacheDir.listFiles();
+        if (cacheFiles != null) {
+            for (File cacheFile : cacheFiles) {
+                assertTrue(cacheFile.delete());
+            }
+        }
+        assertTrue(cacheDir.delete());
+    }
+
+    @Test
+    public void updatesEveryProviderConcurrently() throws Exception {
+        List<BlockUrlProvider> providers = providers();
+        createUpdater().update(providers);
+
+        assertEquals(PROVIDER_COUNT, savedUrls.size());
+        for (BlockUrlProvider provider : providers) {
+            assertEquals(DOMAIN_COUNT, savedUrls.get(provider.id).size());
+            assertTrue(new File(cacheDir, provider.id + ".gz").exists());
+        }
+        assertEquals(THREADS, maxOpenRequests.get());
+        assertTrue("Lists held at once: " + maxHeldLists.get(), maxHeldLists.get() <= THREADS + PENDING_LISTS);
+    }
+
+    @Test
+    public void unchangedProvidersAreNotSavedAgain() throws Exception {
+        List<BlockUrlProvider> providers = providers();
+        createUpdater().update(providers);
+        for (BlockUrlProvider provider : providers) {
+            provider.count = savedUrls.get(provider.id).size();
+        }
+        savedUrls.clear();
+        events.clear();
+
+        createUpdater().update(providers);
+
+        assertTrue(savedUrls.isEmpty());
+        assertEquals(PROVIDER_COUNT, events.size());
+        for (String event : events) {
+            assertTrue(event, event.startsWith("Not modified"));
+        }
+    }
+
+    @Test
+    public void failingProviderDoesNotStopTheOthers() throws Exception {
+        List<BlockUrlProvider> providers = providers();
+        providers.get(0).url = "http://127.0.0.1:" + server.getAddress().getPort() + "/missing";
+        server.createContext("/missing", exchange -> {
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+            exchange.close();
+        });
+
+        createUpdater().update(providers);
+
+        assertEquals(PROVIDER_COUNT - 1, savedUrls.size());
+        assertTrue(events.contains("Failed " + providers.get(0).url));
+    }
+
+    @Test
+    public void providerWhichFailsToSaveIsDownloadedAgain() throws Exception {
+        List<BlockUrlProvider> providers = providers();
+        failSaves = true;
+        createUpdater().update(providers);
+        for (BlockUrlProvider provider : providers) {
+            assertNull(provider.etag);
+        }
+        failSaves = false;
+        events.clear();
+
+        createUpdater().update(providers);
+
+        assertEquals(PROVIDER_COUNT, savedUrls.size());
+        for (String event : events) {
+            assertTrue(event, event.startsWith("Saved"));
+        }
+    }
+
+    private ProviderUpdater createUpdater() {
+        ProviderDownloader downloader = new ProviderDownloader(cacheDir, URL::openConnection);
+        return new ProviderUpdater(THREADS, PENDING_LISTS,
+                provider -> {
+                    ProviderDownloader.Result result = downloader.fetch(provider);
+                    if (result != null) {
+                        max(maxHeldLists, heldLists.incrementAndGet());
+                    }
+                    return result;
+                },
+                (provider, result) -> {
+                    try {
+                        Thread.sleep(SAVE_MILLIS);
+                        if (failSaves) {
+                            throw new IOException("Unable to save " + provider.url);
+                        }
+                        // Like BlockUrlUtils.saveBlockUrls, the validators are only recorded with the stored urls
+                        savedUrls.put(provider.id, result.getUrls());
+                        result.applyValidators(provider);
+                    } finally {
+                        heldLists.decrementAndGet();
+                    }
+                },
+                new ProviderUpdater.Listener() {
+                    @Override
+                    public void onNotModified(BlockUrlProvider provider) {
+                        addEvent("Not modified " + provider.url);
+                    }
+
+                    @Override
+                    public void onSaved(BlockUrlProvider provider) {
+                        addEvent("Saved " + provider.url);
+                    }
+
+                    @Override
+                    public void onFailed(BlockUrlProvider provider, Exception e) {
+                        addEvent("Failed " + provider.url);
+                    }
+                });
+    }
+
+    private void addEvent(String event) {
+        synchronized (events) {
+            events.add(event);
+        }
+    }
+
+    private List<BlockUrlProvider> providers() {
+        List<BlockUrlProvider> providers = new ArrayList<>();
+        for (int i = 1; i <= PROVIDER_COUNT; i++) {
+            BlockUrlProvider provider = new BlockUrlProvider();
+            provider.id = i;
+            provider.url = "http://127.0.0.1:" + server.getAddress().getPort() + "/hosts" + i + ".txt";
+            providers.add(provider);
+        }
+        return providers;
+    }
+
+    private static String hostsFile(String path) {
+        StringBuilder builder = new StringBuilder("# ").append(path).append('\n');
+        for (int i = 0; i < DOMAIN_COUNT; i++) {
+            builder.append("0.0.0.0 host").append(i).append(".example.com\n");
+        }
+        return builder.toString();
+    }
+
+    private static void max(AtomicInteger max, int value) {
+        int current;
+        while ((current = max.get()) < value && !max.compareAndSet(current, value)) {
+            // Another thread raised the maximum in between
+        }
+    }
+}